@@ -0,0 +1,279 @@
+package com.schaff.clickatellsample;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This keeps a local estimate of your balance, so you do not have to call
+ * getBalance before every batch. It is seeded from one getBalance call, and every
+ * message sent by a client that has the ledger set (see setBalanceLedger) is taken
+ * off it.
+ * <p/>
+ * The API does not return the charge of a message when it is sent, so each message
+ * is first charged the estimate given to the constructor. Once the real charge of
+ * that message is known (from getMessageCharge on ClickatellHttp, or
+ * getMessageStatus on ClickatellRest) the difference is put right.
+ * <p/>
+ * The estimate can be reconciled against the real balance on a schedule. Reading
+ * the balance never blocks.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class BalanceLedger {
+
+    /**
+     * This is where the real balance comes from, both ClickatellHttp and ClickatellRest are one.
+     */
+    public interface BalanceSource {
+        /**
+         * @return The real balance of the account.
+         * @throws Exception If the balance could not be fetched.
+         */
+        double getBalance() throws Exception;
+    }
+
+    /**
+     * The most messages whose estimated charge is remembered, so it can be put right later.
+     */
+    public static final int MAX_PENDING_CHARGES = 100000;
+
+    /**
+     * Balances are kept in millionths of a credit, so they can be updated atomically.
+     */
+    private static final double UNITS_PER_CREDIT = 1000000d;
+
+    private final BalanceSource source;
+
+    private final long estimatedCharge;
+
+    /**
+     * The current balance estimate.
+     */
+    private final AtomicLong balance = new AtomicLong();
+
+    /**
+     * Everything ever taken off the balance, used to keep debits made while a reconcile is running.
+     */
+    private final AtomicLong debited = new AtomicLong();
+
+    /**
+     * The estimated charges of messages whose real charge is not known yet, by message ID.
+     */
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+
+    /**
+     * The sequence of the last estimated charge.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Estimated charges up to this sequence are in the real balance of the last
+     * reconcile, so they must not be put right again.
+     */
+    private volatile long reconciledSequence = 0;
+
+    private volatile boolean seeded = false;
+
+    private volatile long lastReconciled = 0;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a ledger. It must be seeded (or reconciled) before the balance means anything.
+     *
+     * @param source          Where the real balance comes from.
+     * @param estimatedCharge The charge to take off for a message until its real charge is known.
+     */
+    public BalanceLedger(BalanceSource source, double estimatedCharge) {
+        if (estimatedCharge < 0) {
+            throw new IllegalArgumentException("The estimated charge cannot be negative");
+        }
+        this.source = source;
+        this.estimatedCharge = toUnits(estimatedCharge);
+    }
+
+    /**
+     * This sets the balance from the source, forgetting everything charged so far.
+     *
+     * @return The balance.
+     * @throws Exception If the balance could not be fetched.
+     */
+    public double seed() throws Exception {
+        double real = source.getBalance();
+        reconciledSequence = sequence.get();
+        pending.clear();
+        balance.set(toUnits(real));
+        seeded = true;
+        lastReconciled = System.currentTimeMillis();
+        return real;
+    }
+
+    /**
+     * This sets the balance from the source. Messages sent while the balance was
+     * being fetched are still taken off. The real balance already has the real
+     * charges of the messages sent before, so their estimates are forgotten, and
+     * settling them later changes nothing.
+     *
+     * @return The new balance estimate.
+     * @throws Exception If the balance could not be fetched, the estimate is then left as is.
+     */
+    public double reconcile() throws Exception {
+        long debitedBefore = debited.get();
+        long sequenceBefore = sequence.get();
+        double real = source.getBalance();
+        long debitedSince = debited.get() - debitedBefore;
+        balance.set(toUnits(real) - debitedSince);
+        if (sequenceBefore > reconciledSequence) {
+            reconciledSequence = sequenceBefore;
+        }
+        Iterator<Pending> estimates = pending.values().iterator();
+        while (estimates.hasNext()) {
+            if (estimates.next().sequence <= sequenceBefore) {
+                estimates.remove();
+            }
+        }
+        seeded = true;
+        lastReconciled = System.currentTimeMillis();
+        return getBalance();
+    }
+
+    /**
+     * This reconciles the ledger on a background thread at a fixed rate, until stop is
+     * called. A failed reconcile leaves the estimate as it was.
+     *
+     * @param period The time between reconciles.
+     * @param unit   The unit of the period.
+     */
+    public synchronized void startReconciling(long period, TimeUnit unit) {
+        stopReconciling();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clickatell-ledger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Exception e) {
+                    // Keep the estimate, and try again next time.
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * This stops the background reconciling.
+     */
+    public synchronized void stopReconciling() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return The current balance estimate.
+     */
+    public double getBalance() {
+        return balance.get() / UNITS_PER_CREDIT;
+    }
+
+    /**
+     * @return Whether the ledger has been seeded or reconciled at least once.
+     */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * @return The time of the last successful seed or reconcile, in milliseconds since the epoch.
+     */
+    public long getLastReconciled() {
+        return lastReconciled;
+    }
+
+    /**
+     * This takes a known charge off the balance.
+     *
+     * @param charge The charge, in credits.
+     */
+    public void debit(double charge) {
+        debitUnits(toUnits(charge));
+    }
+
+    /**
+     * This takes the estimated charge off the balance for a message that was sent.
+     * The difference is put right once settle is called with the real charge.
+     *
+     * @param messageId The ID of the message, may be null if it is not known.
+     */
+    public void debitEstimated(String messageId) {
+        debitEstimated(messageId, 1);
+    }
+
+    /**
+     * This takes the estimated charge of a message of the given number of parts off
+     * the balance, see SmsEncoding. Each part is charged as a message.
+     *
+     * @param messageId The ID of the message, may be null if it is not known.
+     * @param parts     The number of SMS parts the message was sent as.
+     */
+    public void debitEstimated(String messageId, int parts) {
+        long estimate = estimatedCharge * Math.max(parts, 1);
+        long at = sequence.incrementAndGet();
+        debitUnits(estimate);
+        if (messageId != null && pending.size() < MAX_PENDING_CHARGES) {
+            pending.put(messageId, new Pending(estimate, at));
+        }
+    }
+
+    /**
+     * This puts right the estimated charge of a message, now that its real charge is
+     * known. Nothing happens if the message was not charged an estimate, was
+     * already settled, or was sent before the last reconcile.
+     *
+     * @param messageId The ID of the message.
+     * @param charge    The real charge of the message, in credits.
+     */
+    public void settle(String messageId, double charge) {
+        if (messageId == null) {
+            return;
+        }
+        Pending estimate = pending.remove(messageId);
+        if (estimate != null && estimate.sequence > reconciledSequence) {
+            debitUnits(toUnits(charge) - estimate.estimate);
+        }
+    }
+
+    private void debitUnits(long units) {
+        debited.addAndGet(units);
+        balance.addAndGet(-units);
+    }
+
+    private static long toUnits(double credits) {
+        return Math.round(credits * UNITS_PER_CREDIT);
+    }
+
+    /**
+     * The estimated charge of one message.
+     */
+    private static final class Pending {
+        private final long estimate;
+        private final long sequence;
+
+        Pending(long estimate, long sequence) {
+            this.estimate = estimate;
+            this.sequence = sequence;
+        }
+    }
+}
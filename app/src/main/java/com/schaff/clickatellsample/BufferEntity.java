@@ -0,0 +1,52 @@
+package com.schaff.clickatellsample;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This sends a request body straight out of a buffer that belongs to the thread,
+ * without copying it. The buffer must not be written to again until the request
+ * has been executed, see FormRequestTemplate and ClickatellRest.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class BufferEntity extends AbstractHttpEntity {
+    private final byte[] bytes;
+    private final int length;
+
+    BufferEntity(byte[] bytes, int length, String contentType) {
+        this.bytes = bytes;
+        this.length = length;
+        setContentType(contentType);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,244 @@
+package com.schaff.clickatellsample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This splits a list of numbers of any size into chunks that fit in one request,
+ * sends the chunks concurrently and merges the results back, in input order, into
+ * one MessageBatch.
+ * It is used by the sendBulkMessage calls of ClickatellHttp and ClickatellRest, and
+ * by MessageTemplate to send requests that each have their own text.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class BulkDispatcher {
+
+    /**
+     * This sends one chunk of numbers in a single request.
+     */
+    interface ChunkSender {
+        /**
+         * @param numbers The numbers in this chunk, there is at least one.
+         * @return The results for the chunk, in the order of the numbers.
+         * @throws Exception If the chunk could not be sent.
+         */
+        MessageBatch send(String[] numbers) throws Exception;
+    }
+
+    /**
+     * This sends one request of a list of requests.
+     */
+    interface RequestSender {
+        /**
+         * @param request The index of the request to send.
+         * @return The results for the request.
+         * @throws Exception If the request could not be sent.
+         */
+        MessageBatch send(int request) throws Exception;
+    }
+
+    private BulkDispatcher() {
+    }
+
+    /**
+     * This sends all the numbers, at most chunkSize per request and at most
+     * parallelism requests at a time. The calling thread works on chunks too, and
+     * does them all itself if the executor's threads are busy, so this can be called
+     * from one of the executor's own threads.
+     *
+     * @param numbers     All the numbers to send to.
+     * @param chunkSize   The most numbers to put in one request.
+     * @param parallelism The most requests to have in flight at once.
+     * @param executor    The executor the extra requests run on.
+     * @param sender      The sender for a single chunk.
+     * @return The results of every chunk, in the order of the numbers.
+     * @throws PartialSendException If a chunk failed after others were sent, with the
+     *                              results of those, and the failure as its cause.
+     * @throws Exception            The exception thrown by a chunk if none were sent.
+     *                              The chunks that have not started yet are not sent.
+     */
+    static MessageBatch dispatch(final String[] numbers, final int chunkSize, int parallelism,
+                                 ExecutorService executor, final ChunkSender sender) throws Exception {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Chunk size and parallelism must be at least 1");
+        }
+        if (numbers.length == 0) {
+            return MessageBatch.EMPTY;
+        }
+        int chunks = (numbers.length + chunkSize - 1) / chunkSize;
+        MessageBatch[] results = new MessageBatch[chunks];
+        try {
+            dispatch(results, parallelism, executor, new RequestSender() {
+                @Override
+                public MessageBatch send(int chunk) throws Exception {
+                    int from = chunk * chunkSize;
+                    int to = Math.min(from + chunkSize, numbers.length);
+                    return sender.send(Arrays.copyOfRange(numbers, from, to));
+                }
+            });
+        } catch (Exception e) {
+            List<MessageBatch> sent = new ArrayList<MessageBatch>();
+            for (MessageBatch result : results) {
+                if (result != null) {
+                    sent.add(result);
+                }
+            }
+            if (sent.isEmpty()) {
+                throw e;
+            }
+            throw new PartialSendException(MessageBatch.concat(sent), e);
+        }
+        return MessageBatch.concat(Arrays.asList(results));
+    }
+
+    /**
+     * This sends a list of requests, at most parallelism at a time, with the calling
+     * thread working on them too, as runAlongside does.
+     *
+     * @param results     The array the results go in, with one place for every request.
+     * @param parallelism The most requests to have in flight at once.
+     * @param executor    The executor the extra requests run on.
+     * @param sender      The sender for a single request.
+     * @throws Exception The first exception thrown by a request, the requests that have
+     *                   not started yet are then not sent. The results of the requests
+     *                   that were sent are still in the array, the others are null.
+     */
+    static void dispatch(MessageBatch[] results, int parallelism, ExecutorService executor,
+                         RequestSender sender) throws Exception {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        int requests = results.length;
+        if (requests == 0) {
+            return;
+        }
+        Worker worker = new Worker(requests, results, sender);
+        Exception failure = runAlongside(worker, Math.min(parallelism, requests) - 1, executor);
+        if (failure instanceof InterruptedException) {
+            // Stop the runs that are still going:
+            worker.failure = failure;
+        }
+        if (worker.failure != null) {
+            throw worker.failure;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * This runs a worker on the calling thread, and on up to extra threads of the
+     * executor at the same time. Once the calling thread's run is done, the runs that
+     * are still waiting in the executor's queue are called off rather than waited for,
+     * so this does not hang when called from one of the executor's own threads, and
+     * the runs the executor rejects are left to the calling thread.
+     *
+     * @param worker   The worker, which must stop once there is no work left.
+     * @param extra    The most runs to start on the executor.
+     * @param executor The executor the extra runs go on.
+     * @return The first exception thrown by a run, or an InterruptedException if the
+     * calling thread was interrupted while waiting, or null.
+     */
+    static Exception runAlongside(Callable<Void> worker, int extra, ExecutorService executor) {
+        List<Helper> helpers = new ArrayList<Helper>(Math.max(extra, 0));
+        for (int i = 0; i < extra; i++) {
+            Helper helper = new Helper(worker);
+            try {
+                helper.future = executor.submit(helper);
+            } catch (RejectedExecutionException e) {
+                // The queue is full, so this share is done here:
+                break;
+            }
+            helpers.add(helper);
+        }
+        Exception failure = null;
+        try {
+            worker.call();
+        } catch (Exception e) {
+            failure = e;
+        }
+        for (Helper helper : helpers) {
+            if (helper.claim()) {
+                // It never started, and now never will:
+                helper.future.cancel(false);
+                continue;
+            }
+            try {
+                helper.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return e;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * This is one run of a worker on the executor, which only does anything if it
+     * starts before the calling thread claims it.
+     */
+    private static final class Helper implements Callable<Void> {
+        private final Callable<Void> worker;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private Future<Void> future;
+
+        Helper(Callable<Void> worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * @return True if it had not started, it will then not do anything.
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            return claim() ? worker.call() : null;
+        }
+    }
+
+    /**
+     * This keeps taking the next unsent request until there are none left, or one failed.
+     */
+    private static class Worker implements Callable<Void> {
+        private final int requests;
+        private final MessageBatch[] results;
+        private final RequestSender sender;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile Exception failure;
+
+        Worker(int requests, MessageBatch[] results, RequestSender sender) {
+            this.requests = requests;
+            this.results = results;
+            this.sender = sender;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            int request;
+            while (failure == null && (request = next.getAndIncrement()) < requests) {
+                try {
+                    results[request] = sender.send(request);
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.schaff.clickatellsample;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This looks up many message IDs with a bounded number of lookups in flight, and
+ * hands each result to a listener as soon as it is in. The IDs are pulled from
+ * the iterable one at a time, so they can be produced lazily.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class BulkQuery {
+
+    /**
+     * This looks up a single ID.
+     */
+    interface Lookup<T> {
+        T lookup(String messageId) throws Exception;
+    }
+
+    private BulkQuery() {
+    }
+
+    /**
+     * This looks up every ID. The calling thread does lookups too, and does them all
+     * itself if the executor's threads are busy, so this can be called from one of
+     * the executor's own threads.
+     *
+     * @param messageIds  The IDs to look up.
+     * @param concurrency The most lookups to have in flight at once.
+     * @param executor    The executor the extra lookups run on.
+     * @param lookup      The lookup of a single ID.
+     * @param listener    The listener to tell about each result.
+     * @return The number of IDs that were looked up.
+     * @throws RuntimeException If the listener threw one, the query is then stopped.
+     */
+    static <T> int run(Iterable<String> messageIds, int concurrency, ExecutorService executor,
+                       Lookup<T> lookup, BulkQueryListener<T> listener) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        Worker<T> worker = new Worker<T>(messageIds.iterator(), lookup, listener);
+        if (BulkDispatcher.runAlongside(worker, concurrency - 1, executor) instanceof InterruptedException) {
+            // Stop the lookups that are still going:
+            worker.stop = true;
+        }
+        if (worker.failure != null) {
+            throw worker.failure;
+        }
+        return worker.count.get();
+    }
+
+    /**
+     * This keeps taking the next ID until there are none left.
+     */
+    private static class Worker<T> implements Callable<Void> {
+        private final Iterator<String> ids;
+        private final Lookup<T> lookup;
+        private final BulkQueryListener<T> listener;
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile boolean stop = false;
+        private volatile RuntimeException failure;
+
+        Worker(Iterator<String> ids, Lookup<T> lookup, BulkQueryListener<T> listener) {
+            this.ids = ids;
+            this.lookup = lookup;
+            this.listener = listener;
+        }
+
+        private String next() {
+            synchronized (ids) {
+                return !stop && ids.hasNext() ? ids.next() : null;
+            }
+        }
+
+        @Override
+        public Void call() {
+            String id;
+            while ((id = next()) != null) {
+                count.incrementAndGet();
+                try {
+                    T result;
+                    try {
+                        result = lookup.lookup(id);
+                    } catch (Exception e) {
+                        listener.onFailure(id, e);
+                        continue;
+                    }
+                    listener.onResult(id, result);
+                } catch (RuntimeException e) {
+                    // The listener wants us to stop:
+                    failure = e;
+                    stop = true;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This gets told the result of each lookup of a bulk query, such as
+ * ClickatellHttp.getMessageStatuses, as soon as it is done. The results come in the
+ * order the lookups finish, and from several threads at once, so implementations
+ * must be thread safe.
+ * <p/>
+ * Throwing a RuntimeException from either method stops the query, and the
+ * exception is thrown on by the bulk call.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public interface BulkQueryListener<T> {
+
+    /**
+     * @param messageId The message ID that was looked up.
+     * @param result    The result of the lookup.
+     */
+    void onResult(String messageId, T result);
+
+    /**
+     * @param messageId The message ID that was looked up.
+     * @param exception Why the lookup failed.
+     */
+    void onFailure(String messageId, Exception exception);
+}
@@ -0,0 +1,168 @@
+package com.schaff.clickatellsample;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This stops requests from being sent to an endpoint that is failing, so that
+ * threads fail straight away instead of each waiting for a timeout.
+ * <p/>
+ * The breaker remembers whether each of the last windowSize requests failed. Once
+ * at least minimumCalls are remembered and the share of failures reaches the
+ * threshold, the breaker opens and every request fails with a
+ * CircuitBreakerOpenException. After the open time one test request is let
+ * through (half open): if it works the breaker closes, if not it opens again.
+ * <p/>
+ * ClickatellTransport keeps one breaker per endpoint, see
+ * ClickatellTransport.setCircuitBreakerSettings.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openNanos;
+
+    /**
+     * Whether each remembered request failed, as a ring.
+     */
+    private final boolean[] window;
+
+    private int next = 0, calls = 0, failures = 0;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean probing = false;
+
+    /**
+     * Create a breaker.
+     *
+     * @param endpoint             The name of the endpoint, used in the exception.
+     * @param windowSize           The number of recent requests to remember.
+     * @param minimumCalls         The fewest remembered requests before the breaker can open.
+     * @param failureRateThreshold The share of failed requests that opens the breaker, between 0 and 1.
+     * @param openTime             How long the breaker stays open before a test request.
+     * @param unit                 The unit of the open time.
+     */
+    public CircuitBreaker(String endpoint, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openTime, TimeUnit unit) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Illegal window");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("The threshold must be more than 0, and at most 1");
+        }
+        this.endpoint = endpoint;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = unit.toNanos(openTime);
+    }
+
+    /**
+     * This must be called before each request. Every request it lets through must be
+     * followed by onSuccess or onFailure.
+     *
+     * @throws CircuitBreakerOpenException If the request may not be sent.
+     */
+    public synchronized void acquirePermission() throws CircuitBreakerOpenException {
+        if (state == State.OPEN) {
+            long left = openNanos - (System.nanoTime() - openedAt);
+            if (left > 0) {
+                throw new CircuitBreakerOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(left));
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                throw new CircuitBreakerOpenException(endpoint, 0);
+            }
+            probing = true;
+        }
+    }
+
+    /**
+     * This records a request that got a response.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            close();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * This records a request that failed.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * @return The state the breaker is in. An open breaker whose time is up shows as
+     * open until the next request.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The share of the remembered requests that failed, 0 if there are none.
+     */
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : failures / (double) calls;
+    }
+
+    /**
+     * @return The name of the endpoint.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    private void record(boolean failed) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probing = false;
+        next = calls = failures = 0;
+    }
+}
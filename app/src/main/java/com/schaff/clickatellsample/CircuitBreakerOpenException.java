@@ -0,0 +1,42 @@
+package com.schaff.clickatellsample;
+
+import java.io.IOException;
+
+/**
+ * This is thrown instead of sending a request while the circuit breaker of its
+ * endpoint is open, because too many recent requests to that endpoint failed.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String endpoint;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param endpoint         The endpoint whose breaker is open.
+     * @param retryAfterMillis The time until the breaker lets a request through again.
+     */
+    public CircuitBreakerOpenException(String endpoint, long retryAfterMillis) {
+        super("Circuit breaker for " + endpoint + " is open");
+        this.endpoint = endpoint;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return The endpoint whose breaker is open.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return The time until the breaker lets a request through again, 0 if a test request is already running.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,501 @@
+package com.schaff.clickatellsample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This sends through several accounts at once, each with its own client, so that
+ * the throughput grows with the number of accounts. A bulk send is split into
+ * requests of at most 300 numbers, and each request goes to the account picked by
+ * the Selection:
+ * <pre>
+ * WEIGHTED_ROUND_ROBIN  each account in turn, weight times as often as an account of weight 1
+ * LEAST_LOADED          the account with the fewest messages in flight for its weight
+ * </pre>
+ * Accounts whose TokenBucket does not have the tokens for a request right now are
+ * passed over while another account does. If every account is out of tokens the
+ * request still goes to one, which then waits (or throws, if its bucket does not block).
+ * <p/>
+ * An account that turns a request down because of its credentials or its credit
+ * (see ClickatellException.isAccountError) is taken out of rotation, and the
+ * messages it did not send are sent through the other accounts. It stays out until
+ * reinstate is called, or until setRestoreAfter's time has passed.
+ * <p/>
+ * <pre>
+ * ClickatellAccountPool pool = new ClickatellAccountPool(ClickatellAccountPool.Selection.LEAST_LOADED);
+ * pool.addAccount("main", new ClickatellRest(mainKey), 2);
+ * pool.addAccount("spare", new ClickatellHttp(user, apiId, password), 1);
+ * MessageBatch batch = pool.sendBulkMessageBatch(numbers, "Hello");
+ * </pre>
+ * A pool can be shared by many threads.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class ClickatellAccountPool {
+
+    /**
+     * How the account for each request is picked.
+     */
+    public enum Selection {
+        WEIGHTED_ROUND_ROBIN, LEAST_LOADED
+    }
+
+    /**
+     * The most numbers that are put in one request.
+     */
+    public static final int MAX_RECIPIENTS_PER_REQUEST = 300;
+
+    /**
+     * The number of requests in flight at once per account in rotation, for
+     * sendBulkMessageBatch if not told otherwise.
+     */
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
+
+    private final Selection selection;
+
+    /**
+     * The accounts, guarded by this pool.
+     */
+    private final List<Account> accounts = new ArrayList<Account>();
+
+    private volatile ExecutorService executor = ClickatellAsync.getDefaultExecutor();
+
+    private volatile long restoreAfterMillis = 0;
+
+    /**
+     * Create an empty pool that picks accounts by weighted round robin.
+     */
+    public ClickatellAccountPool() {
+        this(Selection.WEIGHTED_ROUND_ROBIN);
+    }
+
+    /**
+     * Create an empty pool.
+     *
+     * @param selection How the account for each request is picked.
+     */
+    public ClickatellAccountPool(Selection selection) {
+        if (selection == null) {
+            throw new IllegalArgumentException("A selection is needed");
+        }
+        this.selection = selection;
+    }
+
+    /**
+     * This adds an account with a weight of 1.
+     *
+     * @param name   A name for the account, for your own use.
+     * @param client The client with the account's credentials.
+     * @return The account, to check on it later.
+     */
+    public Account addAccount(String name, ClickatellClient client) {
+        return addAccount(name, client, 1);
+    }
+
+    /**
+     * This adds an account.
+     *
+     * @param name   A name for the account, for your own use.
+     * @param client The client with the account's credentials. Give it its own
+     *               TokenBucket to keep to the account's rate limit.
+     * @param weight The share of the requests the account gets, relative to the others.
+     * @return The account, to check on it later.
+     */
+    public synchronized Account addAccount(String name, ClickatellClient client, int weight) {
+        if (client == null || weight < 1) {
+            throw new IllegalArgumentException("An account needs a client and a weight of at least 1");
+        }
+        Account account = new Account(name, client, weight);
+        accounts.add(account);
+        return account;
+    }
+
+    /**
+     * @return Every account, in the order they were added, in rotation or not.
+     */
+    public synchronized List<Account> getAccounts() {
+        return Collections.unmodifiableList(new ArrayList<Account>(accounts));
+    }
+
+    /**
+     * @return The number of accounts that requests can be sent through.
+     */
+    public synchronized int getAccountsInRotation() {
+        int count = 0;
+        for (Account account : accounts) {
+            if (account.isInRotation()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This puts an account that was taken out of rotation back in, once its
+     * credentials have been fixed or credit bought.
+     *
+     * @param account The account, as returned by addAccount.
+     */
+    public synchronized void reinstate(Account account) {
+        account.removalError = null;
+        account.current = 0;
+    }
+
+    /**
+     * This sets how long an account stays out of rotation before it is tried again.
+     *
+     * @param restoreAfterMillis The time in milliseconds, or 0 to keep it out until reinstate is called.
+     */
+    public void setRestoreAfter(long restoreAfterMillis) {
+        this.restoreAfterMillis = Math.max(restoreAfterMillis, 0);
+    }
+
+    /**
+     * @return How long, in milliseconds, an account stays out of rotation, 0 for until reinstate is called.
+     */
+    public long getRestoreAfter() {
+        return restoreAfterMillis;
+    }
+
+    /**
+     * This sets the executor that bulk requests and the Async calls run on.
+     *
+     * @param executor The executor, or null to go back to the shared default.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor == null ? ClickatellAsync.getDefaultExecutor() : executor;
+    }
+
+    /**
+     * @return The executor that bulk requests and the Async calls run on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * This sends a message to one number, through one of the accounts.
+     *
+     * @param number  The number to send to.
+     * @param message The message that you would like to send.
+     * @return The message ID or error of the message.
+     * @throws Exception This gets thrown if no account could send it.
+     */
+    public MessageBatch sendMessageBatch(String number, String message) throws Exception {
+        return sendChunk(new String[]{number}, message, null);
+    }
+
+    /**
+     * This sends the same message to any number of people, with
+     * DEFAULT_BULK_PARALLELISM requests in flight per account in rotation.
+     *
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown if a request could not be sent through any account.
+     *                   The requests that have not been sent yet are then dropped.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message) throws Exception {
+        int parallelism = DEFAULT_BULK_PARALLELISM * Math.max(getAccountsInRotation(), 1);
+        return sendBulkMessageBatch(numbers, message, parallelism);
+    }
+
+    /**
+     * This sends the same message to any number of people, spread over the accounts.
+     *
+     * @param numbers     The array of numbers that are to be sent to.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once, over all the accounts.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown if a request could not be sent through any account.
+     *                   The requests that have not been sent yet are then dropped.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message, int parallelism)
+            throws Exception {
+        return dispatch(numbers, message, null, parallelism);
+    }
+
+    /**
+     * This sends a message with extra features to any number of people, spread over
+     * the accounts, with DEFAULT_BULK_PARALLELISM requests in flight per account in rotation.
+     *
+     * @param numbers  The list of numbers that must be sent to.
+     * @param message  The message that is to be sent.
+     * @param features The extra features that should be included.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown if a request could not be sent through any account.
+     */
+    public MessageBatch sendAdvancedMessageBatch(String[] numbers, String message, Map<String, String> features)
+            throws Exception {
+        int parallelism = DEFAULT_BULK_PARALLELISM * Math.max(getAccountsInRotation(), 1);
+        return dispatch(numbers, message, features, parallelism);
+    }
+
+    /**
+     * This is sendBulkMessageBatch, run on the executor. Its chunks go on the same
+     * executor, and the thread running it sends any that no other thread has
+     * picked up, so many of these at once cannot hang the executor.
+     *
+     * @param callback The callback to tell once it is done, may be null.
+     * @return The future of the results.
+     */
+    public Future<MessageBatch> sendBulkMessageBatchAsync(final String[] numbers, final String message,
+                                                          final int parallelism,
+                                                          ClickatellCallback<MessageBatch> callback) {
+        return ClickatellAsync.submit(executor, new Callable<MessageBatch>() {
+            @Override
+            public MessageBatch call() throws Exception {
+                return sendBulkMessageBatch(numbers, message, parallelism);
+            }
+        }, callback);
+    }
+
+    private MessageBatch dispatch(String[] numbers, final String message, final Map<String, String> features,
+                                  int parallelism) throws Exception {
+        return BulkDispatcher.dispatch(numbers, MAX_RECIPIENTS_PER_REQUEST, parallelism, executor,
+                new BulkDispatcher.ChunkSender() {
+                    @Override
+                    public MessageBatch send(String[] chunk) throws Exception {
+                        return sendChunk(chunk, message, features);
+                    }
+                });
+    }
+
+    /**
+     * This sends one request's worth of numbers, through the next account, and
+     * through the others if that account turns out to be out of rotation.
+     */
+    private MessageBatch sendChunk(String[] chunk, String message, Map<String, String> features)
+            throws Exception {
+        // The accounts whose non-blocking rate limiter turned this chunk down:
+        List<Account> limited = null;
+        RateLimitExceededException limit = null;
+        while (true) {
+            Account account = select(chunk.length, limited);
+            if (account == null) {
+                if (limit != null) {
+                    throw limit;
+                }
+                throw new ClickatellException(-1, "No account is in rotation");
+            }
+            MessageBatch batch;
+            try {
+                batch = account.send(chunk, message, features);
+            } catch (RateLimitExceededException e) {
+                if (limited == null) {
+                    limited = new ArrayList<Account>();
+                }
+                limited.add(account);
+                limit = e;
+                continue;
+            } catch (ClickatellException e) {
+                if (!e.isAccountError()) {
+                    throw e;
+                }
+                takeOutOfRotation(account, e);
+                continue;
+            }
+            return resendAccountErrors(account, chunk, batch, message, features);
+        }
+    }
+
+    /**
+     * This takes the account out of rotation if any of the messages failed because
+     * of it, such as for lack of credit, and sends those again through the others.
+     * If there are no others the batch is returned as it is.
+     */
+    private MessageBatch resendAccountErrors(Account account, String[] chunk, MessageBatch batch, String message,
+                                             Map<String, String> features) throws Exception {
+        int failed = 0, index = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            if (ClickatellException.isAccountError(batch.getErrorCode(i))) {
+                failed++;
+                index = i;
+            }
+        }
+        if (failed == 0) {
+            return batch;
+        }
+        takeOutOfRotation(account, new ClickatellException(batch.getErrorCode(index), batch.getError(index)));
+        if (getAccountsInRotation() == 0) {
+            return batch;
+        }
+        if (batch.size() < chunk.length && batch.getAcceptedCount() == 0) {
+            // One error for the whole request:
+            return sendChunk(chunk, message, features);
+        }
+        String[] again = new String[failed];
+        for (int i = 0, j = 0; i < batch.size(); i++) {
+            if (ClickatellException.isAccountError(batch.getErrorCode(i))) {
+                again[j++] = batch.getNumber(i);
+            }
+        }
+        MessageBatch resent = sendChunk(again, message, features);
+        MessageBatch.Builder merged = new MessageBatch.Builder(batch.getText(), batch.size() - failed + resent.size());
+        int next = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (!ClickatellException.isAccountError(batch.getErrorCode(i))) {
+                merged.append(batch, i);
+            } else if (resent.size() == failed) {
+                // Put each one back where it was:
+                merged.append(resent, next++);
+            }
+        }
+        while (next < resent.size()) {
+            merged.append(resent, next++);
+        }
+        return merged.build();
+    }
+
+    /**
+     * This picks the account for a request, and counts the messages as in flight on it.
+     *
+     * @param messages The number of messages in the request.
+     * @param skip     Accounts not to pick, may be null.
+     * @return The account, or null if none is in rotation.
+     */
+    private synchronized Account select(int messages, List<Account> skip) {
+        long now = System.currentTimeMillis();
+        long restoreAfter = restoreAfterMillis;
+        Account best = null;
+        boolean bestHasTokens = false;
+        int totalWeight = 0;
+        for (Account account : accounts) {
+            if (!account.isInRotation()) {
+                if (restoreAfter == 0 || now - account.removedAt < restoreAfter) {
+                    continue;
+                }
+                reinstate(account);
+            }
+            if (skip != null && skip.contains(account)) {
+                continue;
+            }
+            TokenBucket limiter = account.client.getRateLimiter();
+            boolean hasTokens = limiter == null || limiter.available() >= Math.min(messages, limiter.getBurst());
+            account.current += account.weight;
+            totalWeight += account.weight;
+            if (best == null || (hasTokens && !bestHasTokens)
+                    || (hasTokens == bestHasTokens && isBetter(account, best))) {
+                best = account;
+                bestHasTokens = hasTokens;
+            }
+        }
+        if (best != null) {
+            best.current -= totalWeight;
+            best.inFlight.addAndGet(messages);
+        }
+        return best;
+    }
+
+    /**
+     * @return Whether a should be picked over b. Equally loaded accounts are taken
+     * in weighted round robin order, so that they all get a share.
+     */
+    private boolean isBetter(Account a, Account b) {
+        if (selection == Selection.LEAST_LOADED) {
+            long loadA = (long) a.inFlight.get() * b.weight, loadB = (long) b.inFlight.get() * a.weight;
+            if (loadA != loadB) {
+                return loadA < loadB;
+            }
+        }
+        return a.current > b.current;
+    }
+
+    private synchronized void takeOutOfRotation(Account account, ClickatellException error) {
+        if (account.removalError == null) {
+            account.removalError = error;
+            account.removedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * This is one account in the pool.
+     */
+    public static final class Account {
+        private final String name;
+        private final ClickatellClient client;
+        private final int weight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong accepted = new AtomicLong();
+
+        /**
+         * The smooth weighted round robin count, guarded by the pool.
+         */
+        private long current;
+
+        private volatile ClickatellException removalError;
+        private volatile long removedAt;
+
+        private Account(String name, ClickatellClient client, int weight) {
+            this.name = name;
+            this.client = client;
+            this.weight = weight;
+        }
+
+        private MessageBatch send(String[] numbers, String message, Map<String, String> features)
+                throws Exception {
+            try {
+                MessageBatch batch = features == null
+                        ? client.sendBulkMessageBatch(numbers, message, 1)
+                        : client.sendAdvancedMessageBatch(numbers, message, features);
+                accepted.addAndGet(batch.getAcceptedCount());
+                return batch;
+            } finally {
+                inFlight.addAndGet(-numbers.length);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ClickatellClient getClient() {
+            return client;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return Whether requests are being sent through this account.
+         */
+        public boolean isInRotation() {
+            return removalError == null;
+        }
+
+        /**
+         * @return The error the account was taken out of rotation for, or null if it is in rotation.
+         */
+        public ClickatellException getRemovalError() {
+            return removalError;
+        }
+
+        /**
+         * @return The number of messages being sent through this account right now.
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return The number of messages this account got a message ID for, ever.
+         */
+        public long getAcceptedCount() {
+            return accepted.get();
+        }
+
+        @Override
+        public String toString() {
+            ClickatellException error = removalError;
+            return name + (error == null ? "" : " (out of rotation: " + error.getMessage() + ")");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.schaff.clickatellsample;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This holds the executors that the asynchronous (...Async) calls of
+ * ClickatellHttp and ClickatellRest run on. The executors are bounded: a fixed
+ * number of threads work through a bounded queue of requests, so thousands of
+ * requests can be waiting without thousands of threads being started.
+ * <p/>
+ * When the queue is full new requests are rejected, and their callback is told
+ * with a RejectedExecutionException.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public final class ClickatellAsync {
+
+    /**
+     * The number of threads in the default executor.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * The number of requests that may wait in the default executor's queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * The executor used by clients that were not given one.
+     */
+    private static ExecutorService defaultExecutor;
+
+    private ClickatellAsync() {
+    }
+
+    /**
+     * This returns the executor shared by all clients that were not given their own.
+     * If the shared executor was shut down a new one is created.
+     *
+     * @return The shared executor.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null || defaultExecutor.isShutdown()) {
+            defaultExecutor = newBoundedExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * This creates an executor with a fixed number of daemon threads and a bounded queue.
+     *
+     * @param threads       The number of threads that run requests.
+     * @param queueCapacity The number of requests that may wait for a thread.
+     * @return The new executor.
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Threads and queue capacity must be at least 1");
+        }
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ClickatellThreadFactory());
+    }
+
+    /**
+     * This submits the task to the executor, and tells the callback (if there is one)
+     * once it is done.
+     *
+     * @param executor The executor to run the task on.
+     * @param task     The blocking call to run.
+     * @param callback The callback to tell, this may be null.
+     * @return The future of the task.
+     */
+    static <T> Future<T> submit(ExecutorService executor, Callable<T> task, ClickatellCallback<T> callback) {
+        CallbackTask<T> future = new CallbackTask<T>(task, callback);
+        try {
+            executor.execute(future);
+        } catch (RuntimeException e) {
+            // Rejected, so nothing will ever run the task:
+            future.setFailure(e);
+        }
+        return future;
+    }
+
+    /**
+     * This is a FutureTask that tells a callback once it is done. It can also be
+     * completed from outside, with setResult or setFailure, instead of being run.
+     */
+    static class CallbackTask<T> extends FutureTask<T> {
+        private final ClickatellCallback<T> callback;
+
+        CallbackTask(Callable<T> task, ClickatellCallback<T> callback) {
+            super(task);
+            this.callback = callback;
+        }
+
+        void setResult(T result) {
+            set(result);
+        }
+
+        void setFailure(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) {
+                return;
+            }
+            T result;
+            try {
+                result = get();
+            } catch (CancellationException e) {
+                callback.onFailure(e);
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.onFailure(cause instanceof Exception ? (Exception) cause : e);
+                return;
+            } catch (InterruptedException e) {
+                // We are done, so get() cannot block, but keep the flag:
+                Thread.currentThread().interrupt();
+                callback.onFailure(e);
+                return;
+            }
+            callback.onSuccess(result);
+        }
+    }
+
+    /**
+     * This names the executor threads, and makes them daemons so they do not keep
+     * the process alive.
+     */
+    private static class ClickatellThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "clickatell-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This gets told the outcome of one of the asynchronous (...Async) calls on
+ * ClickatellHttp or ClickatellRest. The methods are called on the executor thread
+ * that ran the request, so on Android use runOnUiThread to touch any views.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public interface ClickatellCallback<T> {
+
+    /**
+     * This is called when the request completed.
+     *
+     * @param result The value the blocking version of the call would have returned.
+     */
+    void onSuccess(T result);
+
+    /**
+     * This is called when the request failed, or was cancelled.
+     *
+     * @param exception The exception the blocking version of the call would have thrown.
+     */
+    void onFailure(Exception exception);
+}
@@ -0,0 +1,48 @@
+package com.schaff.clickatellsample;
+
+import java.util.Map;
+
+/**
+ * This is what ClickatellHttp and ClickatellRest have in common for sending, so that
+ * ClickatellAccountPool can send through either. Each client is tied to the one
+ * account its credentials are for.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public interface ClickatellClient extends BalanceLedger.BalanceSource {
+
+    /**
+     * This sends the same message to any number of people, in requests of at most
+     * 300 numbers, with at most parallelism requests in flight at once.
+     *
+     * @param numbers     The array of numbers that are to be sent to.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws PartialSendException If a request failed after others went out, with their results.
+     * @throws Exception            This gets thrown on auth errors, as a ClickatellException.
+     */
+    MessageBatch sendBulkMessageBatch(String[] numbers, String message, int parallelism) throws Exception;
+
+    /**
+     * This sends a message with extra features, such as from or callback, in one request.
+     *
+     * @param numbers  The list of numbers that must be sent to.
+     * @param message  The message that is to be sent.
+     * @param features The extra features that should be included.
+     * @return The number and the message ID or error of each message.
+     * @throws Exception This gets thrown on auth errors, as a ClickatellException.
+     */
+    MessageBatch sendAdvancedMessageBatch(String[] numbers, String message, Map<String, String> features)
+            throws Exception;
+
+    /**
+     * @return The rate limiter every send takes tokens from, or null if there is none.
+     */
+    TokenBucket getRateLimiter();
+
+    /**
+     * @return The normalizer run before every send to many numbers, or null if there is none.
+     */
+    RecipientNormalizer getRecipientNormalizer();
+}
@@ -0,0 +1,63 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is thrown when the API turns down a whole request, with the error code it
+ * gave, such as 1 for "Authentication failed". The message is the description of
+ * the error, as it was before this class existed.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class ClickatellException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int AUTHENTICATION_FAILED = 1, UNKNOWN_USER = 2, IP_LOCKDOWN = 7, NO_CREDIT = 301;
+
+    public static final int INVALID_DESTINATION = 105, CANNOT_ROUTE = 114, DESTINATION_BLOCKED = 121,
+            NUMBER_DELISTED = 128;
+
+    private final int errorCode;
+
+    /**
+     * @param errorCode The code of the error, or -1 if there was none.
+     * @param message   The description of the error.
+     */
+    public ClickatellException(int errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * @return The code of the error, or -1 if there was none.
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return Whether the error is about the account rather than the request, so
+     * that nothing will be sent with it until it is fixed: bad credentials, an IP
+     * address the account does not allow, or no credit left.
+     */
+    public boolean isAccountError() {
+        return isAccountError(errorCode);
+    }
+
+    /**
+     * @return Whether the error code is about the account rather than the request.
+     */
+    public static boolean isAccountError(int errorCode) {
+        return errorCode == AUTHENTICATION_FAILED || errorCode == UNKNOWN_USER || errorCode == IP_LOCKDOWN
+                || errorCode == NO_CREDIT;
+    }
+
+    /**
+     * @return Whether the error code is about the number a message was for, so that
+     * sending the message again will never work: an invalid number, one that cannot
+     * be routed, one that is blocked, or one that has been delisted.
+     */
+    public static boolean isNumberError(int errorCode) {
+        return errorCode == INVALID_DESTINATION || errorCode == CANNOT_ROUTE || errorCode == DESTINATION_BLOCKED
+                || errorCode == NUMBER_DELISTED;
+    }
+}
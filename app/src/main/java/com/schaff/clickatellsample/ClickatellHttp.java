@@ -1,23 +1,20 @@
 package com.schaff.clickatellsample;
 
+import com.schaff.clickatellsample.HttpReplyDecoder.Reply;
+
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This is an example of how to use the Clickatell HTTP API. NOTE: this is not
@@ -27,30 +24,126 @@ import java.util.Map;
  *
  * @author Dominic Schaff <dominic.schaff@gmail.com>
  */
-public class ClickatellHttp {
+public class ClickatellHttp implements ClickatellClient {
+
+    /**
+     * The URL to use for the base of the HTTP API, unless the constructor is given another.
+     */
+    public static final String CLICKATELL_HTTP_BASE_URL = "https://api.clickatell.com/http/";
+
+    /**
+     * The URL to use for the base of the HTTP/UTILS API, unless the constructor is given another.
+     */
+    public static final String CLICKATELL_UTILS_BASE_URL = "https://api.clickatell.com/utils/";
 
     /**
-     * The URL to use for the base of the HTTP API.
+     * The most numbers that can be sent to in one sendmsg.php request.
      */
-   private static final String CLICKATELL_HTTP_BASE_URL = "https://api.clickatell.com/http/";
+    public static final int MAX_RECIPIENTS_PER_REQUEST = 300;
 
     /**
-     * The URL to use for the base of the HTTP/UTILS API.
+     * The number of requests sendBulkMessage has in flight at once, if not told otherwise.
      */
-   private static final String CLICKATELL_UTILS_BASE_URL = "https://api.clickatell.com/utils/";
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
 
     /**
      * The three private variables to use for authentication.
      */
     private String userName, apiId, password;
 
+    /**
+     * The transport that requests are sent through.
+     */
+    private final ClickatellTransport transport;
+
+    /**
+     * The cache of coverage lookups, or null to always ask the API.
+     */
+    private volatile CoverageCache coverageCache;
+
+    /**
+     * The ledger that sent messages are charged to, or null.
+     */
+    private volatile BalanceLedger balanceLedger;
+
+    /**
+     * The rate limiter that sends take tokens from, or null.
+     */
+    private volatile TokenBucket rateLimiter;
+
+    /**
+     * The normalizer that lists of numbers go through before they are sent to, or null.
+     */
+    private volatile RecipientNormalizer recipientNormalizer;
+
+    /**
+     * The policy that failed requests are retried with.
+     */
+    private volatile RetryPolicy retryPolicy = RetryPolicy.getDefault();
+
+    /**
+     * The requests for each endpoint, with the authentication already encoded.
+     */
+    private final FormRequestTemplate authRequest, balanceRequest, sendRequest, queryRequest, chargeRequest,
+            deleteRequest, coverageRequest;
+
+    /**
+     * The executor that the ...Async calls run on.
+     */
+    private volatile ExecutorService executor = ClickatellAsync.getDefaultExecutor();
+
     /**
      * Create a HTTP object, and set the auth, but not test the auth.
+     * This object will use the shared default transport.
      */
     public ClickatellHttp(String userName, String apiId, String password) {
+        this(userName, apiId, password, ClickatellTransport.getDefault());
+    }
+
+    /**
+     * Create a HTTP object that sends its requests through the given transport, and
+     * set the auth, but not test the auth.
+     */
+    public ClickatellHttp(String userName, String apiId, String password, ClickatellTransport transport) {
+        this(userName, apiId, password, transport, CLICKATELL_HTTP_BASE_URL, CLICKATELL_UTILS_BASE_URL);
+    }
+
+    /**
+     * Create a HTTP object that sends its requests to the given base URLs, for example
+     * a local stand-in server for testing, and set the auth, but not test the auth.
+     *
+     * @param httpBaseUrl  The base URL of the HTTP API, see CLICKATELL_HTTP_BASE_URL.
+     * @param utilsBaseUrl The base URL of the HTTP/UTILS API, see CLICKATELL_UTILS_BASE_URL.
+     */
+    public ClickatellHttp(String userName, String apiId, String password, ClickatellTransport transport,
+                          String httpBaseUrl, String utilsBaseUrl) {
         this.userName = userName;
         this.apiId = apiId;
         this.password = password;
+        this.transport = transport;
+        httpBaseUrl = withSlash(httpBaseUrl);
+        utilsBaseUrl = withSlash(utilsBaseUrl);
+        this.authRequest = newTemplate(httpBaseUrl + "auth.php");
+        this.balanceRequest = newTemplate(httpBaseUrl + "getbalance.php");
+        this.sendRequest = newTemplate(httpBaseUrl + "sendmsg.php");
+        this.queryRequest = newTemplate(httpBaseUrl + "querymsg.php");
+        this.chargeRequest = newTemplate(httpBaseUrl + "getmsgcharge.php");
+        this.deleteRequest = newTemplate(httpBaseUrl + "delmsg.php");
+        this.coverageRequest = newTemplate(utilsBaseUrl + "routecoverage.php");
+    }
+
+    private static String withSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * This creates the request template for an endpoint, with the auth details in it.
+     *
+     * @param url The URL of the endpoint.
+     * @return The template.
+     */
+    private FormRequestTemplate newTemplate(String url) {
+        return new FormRequestTemplate(url, "user", userName, "api_id", apiId, "password", password);
     }
 
     /**
@@ -58,19 +151,13 @@ public class ClickatellHttp {
      *
      * @return True if details were accepted, and false otherwise.
      * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws IOException                   If the request failed, after any retries.
      */
-    public boolean testAuth() throws UnknownHostException {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(3);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-
+    public boolean testAuth() throws IOException {
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "auth.php",
-                nameValuePairs);
+        Reply reply = this.executePost(authRequest.begin().toRequest(), true);
         // Check whether an auth failed happened:
-        return !s.equalsIgnoreCase("ERR: 001, Authentication failed");
+        return reply.errorCode != HttpReplyDecoder.ERROR_AUTHENTICATION_FAILED;
     }
 
     /**
@@ -81,22 +168,15 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public double getBalance() throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(3);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "getbalance.php",
-                nameValuePairs);
+        Reply reply = this.executePost(balanceRequest.begin().toRequest(), true);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
+        checkAuth(reply);
+        // The balance is given as Credit: xxx
+        if (reply.credit == null) {
+            throw new Exception(reply.isError() ? reply.error : "No balance was returned");
         }
-        // We know the balance is the second part of the query:
-        String[] a = s.split(" ");
-        return Double.parseDouble(a[1]);
+        return Double.parseDouble(reply.credit);
     }
 
     /**
@@ -110,36 +190,33 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public Message sendMessage(String number, String message) throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("to", number));
-        nameValuePairs.add(new BasicNameValuePair("text", message));
-
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "sendmsg.php", nameValuePairs);
+        throttle(1);
+        FormRequestTemplate.Body body = sendRequest.begin().add("to", number);
+        int parts = addText(body, message, null);
+        Reply reply = this.executePost(body.toRequest(), false);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
-        String a[] = s.split(": ");
+        checkAuth(reply);
         Message m = new Message();
         m.number = number;
         m.content = message;
         // Check whether there is no credit left in the account:
-        if (s.equalsIgnoreCase("err")) {
-            m.error = a[1];
+        if (reply.isError()) {
+            m.error = reply.error;
             return m;
         }
-        m.message_id = a[1].trim();
+        if (reply.id == null) {
+            throw new Exception("No message ID was returned");
+        }
+        m.message_id = reply.id;
+        chargeSent(m.message_id, parts);
         return m;
     }
 
     /**
      * This is to send the same message to multiple people. Only use this
      * function to send a maximum of 300 messages, and a minimum of 2.
+     * Use sendBulkMessage for lists of any size.
      *
      * @param numbers The array of numbers that are to be sent to. They should be in international format.
      * @param message The message that you would like to send.
@@ -149,43 +226,206 @@ public class ClickatellHttp {
      */
     public Message[] sendMessage(String[] numbers, String message)
             throws Exception {
+        return toMessages(sendMessageBatch(numbers, message));
+    }
+
+    /**
+     * This is sendMessage, but the results are returned as a MessageBatch, which
+     * takes a fraction of the memory of a Message per number. The same limits apply,
+     * from 2 to 300 numbers.
+     *
+     * @param numbers The array of numbers that are to be sent to. They should be in international format.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them.
+     */
+    public MessageBatch sendMessageBatch(String[] numbers, String message) throws Exception {
         if (numbers.length < 2 || numbers.length > 300) {
             throw new Exception("Illegal arguments passed");
         }
-        ArrayList<Message> messages = new ArrayList<Message>();
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        String numbersSend = numbers[0];
-        for (int x = 1; x < numbers.length; x++) {
-            numbersSend += "," + numbers[x];
+        return sendChunk(normalize(numbers), message);
+    }
+
+    /**
+     * This sends to at most 300 numbers in one request, or to a single number with
+     * sendMessage, as the multiple message call needs at least two numbers.
+     */
+    private MessageBatch sendChunk(String[] numbers, String message) throws Exception {
+        if (numbers.length == 0) {
+            return MessageBatch.EMPTY;
+        }
+        if (numbers.length == 1) {
+            return toBatch(new Message[]{sendMessage(numbers[0], message)});
         }
-        nameValuePairs.add(new BasicNameValuePair("to", numbersSend));
-        nameValuePairs.add(new BasicNameValuePair("text", message));
 
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "sendmsg.php", nameValuePairs);
-        // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
-        // We don't throw an exception here, as maybe only part of your
-        // messages failed:
-        String lines[] = s.split("\n");
-        for (String l : lines) {
-            String n[] = l.split(" To: ");
-            Message m = new Message();
-            m.number = n[1].trim();
-            String q[] = n[0].split(": ");
-            if (q[0].equalsIgnoreCase("err")) {
-                m.error = q[1];
-            } else {
-                m.message_id = q[1];
+        // We don't throw an exception for a failed number, as maybe only part of
+        // your messages failed:
+        FormRequestTemplate.Body body = sendRequest.begin().addList("to", numbers);
+        int parts = addText(body, message, null);
+        return this.executeSend(body.toRequest(), numbers, message, parts);
+    }
+
+    /**
+     * This sends the same message to any number of people. The numbers are split into
+     * requests of at most MAX_RECIPIENTS_PER_REQUEST, and DEFAULT_BULK_PARALLELISM of
+     * those requests are sent at a time.
+     *
+     * @param numbers The array of numbers that are to be sent to. They should be in international format.
+     * @param message The message that you would like to send.
+     * @return A message array, in the same order as the numbers. Each element will contain the number you sent
+     * to and the message ID or error per message.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them.
+     */
+    public Message[] sendBulkMessage(String[] numbers, String message) throws Exception {
+        return sendBulkMessage(numbers, message, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * This sends the same message to any number of people. The numbers are split into
+     * requests of at most MAX_RECIPIENTS_PER_REQUEST, and the requests are sent
+     * concurrently on this object's executor.
+     *
+     * @param numbers     The array of numbers that are to be sent to. They should be in international format.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once.
+     * @return A message array, in the same order as the numbers. Each element will contain the number you sent
+     * to and the message ID or error per message.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them. If one
+     *                                       request fails the requests that have not been sent yet are dropped,
+     *                                       and if others were sent it is a PartialSendException with their results.
+     */
+    public Message[] sendBulkMessage(String[] numbers, String message, int parallelism) throws Exception {
+        return toMessages(sendBulkMessageBatch(numbers, message, parallelism));
+    }
+
+    /**
+     * This is sendBulkMessage, but the results are returned as a MessageBatch, which
+     * takes a fraction of the memory of a Message per number. Use this for big
+     * campaigns.
+     *
+     * @param numbers The array of numbers that are to be sent to. They should be in international format.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message) throws Exception {
+        return sendBulkMessageBatch(numbers, message, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * This is sendBulkMessage, with the results returned as a MessageBatch.
+     *
+     * @param numbers     The array of numbers that are to be sent to. They should be in international format.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them. If one
+     *                                       request fails the requests that have not been sent yet are dropped,
+     *                                       and if others were sent it is a PartialSendException with their results.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message, int parallelism)
+            throws Exception {
+        return dispatch(normalize(numbers), message, parallelism);
+    }
+
+    /**
+     * This sends to numbers that have already been normalized, in chunks, see sendBulkMessageBatch.
+     */
+    private MessageBatch dispatch(String[] numbers, final String message, int parallelism) throws Exception {
+        return BulkDispatcher.dispatch(numbers, MAX_RECIPIENTS_PER_REQUEST, parallelism, executor,
+                new BulkDispatcher.ChunkSender() {
+                    @Override
+                    public MessageBatch send(String[] chunk) throws Exception {
+                        return sendChunk(chunk, message);
+                    }
+                });
+    }
+
+    /**
+     * This sends the same message to any number of people, like sendBulkMessage, but
+     * writes every message to the queue first, and waits until they are on disk.
+     * Each message that gets a message ID is marked as done in the queue as its
+     * request comes back, and each one turned down because of its number is
+     * discarded, so if the send fails or the process dies part way through, the
+     * rest can be sent with resendPending.
+     *
+     * @param queue   The queue to write the messages to.
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return Message array, in the same order as the numbers, with the message ID or error per number.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them. Messages
+     *                                       that were not sent stay in the queue.
+     */
+    public Message[] sendQueuedMessage(OutboundQueue queue, String[] numbers, String message) throws Exception {
+        return toMessages(sendQueuedMessageBatch(queue, numbers, message));
+    }
+
+    /**
+     * This is sendQueuedMessage, but the results are returned as a MessageBatch.
+     *
+     * @param queue   The queue to write the messages to.
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them. Messages
+     *                                       that were not sent stay in the queue.
+     */
+    public MessageBatch sendQueuedMessageBatch(OutboundQueue queue, String[] numbers, String message)
+            throws Exception {
+        numbers = normalize(numbers);
+        long[] sequences = new long[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            sequences[i] = queue.enqueue(numbers[i], message);
+        }
+        if (numbers.length > 0) {
+            // One wait covers every entry before it:
+            queue.awaitDurable(sequences[numbers.length - 1]);
+        }
+        return sendAndAcknowledge(queue, sequences, numbers, message);
+    }
+
+    /**
+     * This sends the messages that are not done in the queue, for example because
+     * the process died part way through a campaign, or a send failed. Messages with
+     * the same text are sent together. Do not call it while another send from the
+     * queue is running, as the messages of that send would go out twice.
+     *
+     * @param queue The queue to send the pending messages of.
+     * @return The number of messages that were sent.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them. Messages
+     *                                       that were not sent stay in the queue.
+     */
+    public int resendPending(OutboundQueue queue) throws Exception {
+        Map<String, List<OutboundQueue.Entry>> byText = new LinkedHashMap<String, List<OutboundQueue.Entry>>();
+        for (OutboundQueue.Entry entry : queue.getPending()) {
+            List<OutboundQueue.Entry> entries = byText.get(entry.getText());
+            if (entries == null) {
+                entries = new ArrayList<OutboundQueue.Entry>();
+                byText.put(entry.getText(), entries);
+            }
+            entries.add(entry);
+        }
+        int sent = 0;
+        for (Map.Entry<String, List<OutboundQueue.Entry>> group : byText.entrySet()) {
+            List<OutboundQueue.Entry> entries = group.getValue();
+            long[] sequences = new long[entries.size()];
+            String[] numbers = new String[entries.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                sequences[i] = entries.get(i).getSequence();
+                numbers[i] = entries.get(i).getNumber();
             }
-            messages.add(m);
+            sent += sendAndAcknowledge(queue, sequences, numbers, group.getKey()).getAcceptedCount();
         }
-        return messages.toArray(new Message[0]);
+        return sent;
     }
 
     /**
@@ -198,27 +438,19 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public int getMessageStatus(String messageId) throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("apimsgid", messageId));
-
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "querymsg.php", nameValuePairs);
+        Reply reply = this.executePost(queryRequest.begin().add("apimsgid", messageId).toRequest(), true);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
+        checkAuth(reply);
         // If there was an error, throw it.
-        if (s.startsWith("ERR:")) {
-            throw new Exception(s);
+        if (reply.isError()) {
+            throw new Exception("ERR: " + reply.error);
         }
-        // We know the status will always be the fourth part:
         // Syntax: ID: xxx Status: xxx
-        String[] a = s.split(" ");
-        return Integer.parseInt(a[3].trim());
+        if (reply.status < 0) {
+            throw new Exception("No status was returned");
+        }
+        return reply.status;
     }
 
     /**
@@ -231,32 +463,65 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public Message getMessageCharge(String messageId) throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("apimsgid", messageId));
-
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "getmsgcharge.php", nameValuePairs);
+        Reply reply = this.executePost(chargeRequest.begin().add("apimsgid", messageId).toRequest(), true);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
+        checkAuth(reply);
         Message m = new Message(messageId);
-        // If there was an error, throw it.
-        if (s.startsWith("ERR:")) {
-            m.error = s.substring(4);
+        // If there was an error, keep it.
+        if (reply.isError()) {
+            m.error = reply.error;
         } else {
-            String[] a = s.split(" ");
-            m.status = a[5].trim();
-            m.charge = a[3].trim();
+            // Syntax: apiMsgId: xxx charge: xxx status: xxx
+            m.status = reply.status < 0 ? null : String.format("%03d", reply.status);
+            m.charge = reply.charge;
+            settleCharge(messageId, m.charge);
         }
         return m;
     }
 
+    /**
+     * This looks up the status of many messages, with at most the given number of lookups
+     * in flight at once. Each result is handed to the listener as soon as it is in,
+     * so results can be used while the rest are still being looked up. The lookups
+     * share this object's transport, so there is no point in a concurrency higher
+     * than its connections per route.
+     *
+     * @param messageIds  The message IDs to look up, these are read one at a time.
+     * @param concurrency The most lookups to have in flight at once.
+     * @param listener    Told the result of each lookup, from several threads.
+     * @return The number of message IDs that were looked up.
+     */
+    public int getMessageStatuses(Iterable<String> messageIds, int concurrency, BulkQueryListener<Integer> listener) {
+        return BulkQuery.run(messageIds, concurrency, executor, new BulkQuery.Lookup<Integer>() {
+            @Override
+            public Integer lookup(String messageId) throws Exception {
+                return getMessageStatus(messageId);
+            }
+        }, listener);
+    }
+
+    /**
+     * This looks up the status and charge of many messages, with at most the given number of lookups
+     * in flight at once. Each result is handed to the listener as soon as it is in,
+     * so results can be used while the rest are still being looked up. The lookups
+     * share this object's transport, so there is no point in a concurrency higher
+     * than its connections per route.
+     *
+     * @param messageIds  The message IDs to look up, these are read one at a time.
+     * @param concurrency The most lookups to have in flight at once.
+     * @param listener    Told the result of each lookup, from several threads.
+     * @return The number of message IDs that were looked up.
+     */
+    public int getMessageCharges(Iterable<String> messageIds, int concurrency, BulkQueryListener<Message> listener) {
+        return BulkQuery.run(messageIds, concurrency, executor, new BulkQuery.Lookup<Message>() {
+            @Override
+            public Message lookup(String messageId) throws Exception {
+                return getMessageCharge(messageId);
+            }
+        }, listener);
+    }
+
     /**
      * This will try to stop a message that has been sent. Note that only
      * messages that are going to be sent in the future can be stopped. Or if by
@@ -268,32 +533,24 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public int stopMessage(String messageId) throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("apimsgid", messageId));
-
         // Send Request:
-        String s = this.executePost(CLICKATELL_HTTP_BASE_URL + "delmsg.php", nameValuePairs);
+        Reply reply = this.executePost(deleteRequest.begin().add("apimsgid", messageId).toRequest(), false);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
+        checkAuth(reply);
         // If there was an error, throw it.
-        if (s.startsWith("ERR")) {
-            throw new Exception(s);
+        if (reply.isError()) {
+            throw new Exception("ERR: " + reply.error);
         }
-        // Split the result we know that the status will always the fourth
-        // part:
         // Format: ID: xxx Status: xxx
-        String[] a = s.split(" ");
-        return Integer.parseInt(a[3].trim());
+        if (reply.status < 0) {
+            throw new Exception("No status was returned");
+        }
+        return reply.status;
     }
 
     /**
      * This does a coverage lookup on the given number.
+     * If a CoverageCache has been set, it is checked first.
      *
      * @param number The number that should be checked.
      * @return -1 for failure, or the minimum charge of the message.
@@ -301,24 +558,36 @@ public class ClickatellHttp {
      * @throws Exception                     There are errors that get thrown, you should catch them.
      */
     public double getCoverage(String number) throws Exception {
-        // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        nameValuePairs.add(new BasicNameValuePair("msisdn", number));
+        CoverageCache cache = this.coverageCache;
+        if (cache == null) {
+            return lookupCoverage(number);
+        }
+        Double cached = cache.get(number);
+        if (cached != null) {
+            return cached;
+        }
+        double charge = lookupCoverage(number);
+        cache.put(number, charge);
+        return charge;
+    }
 
+    /**
+     * This asks the API for the coverage of the given number.
+     *
+     * @param number The number that should be checked.
+     * @return -1 if the number cannot be routed, or the minimum charge of the message.
+     * @throws Exception If the lookup failed.
+     */
+    private double lookupCoverage(String number) throws Exception {
         // Send Request:
-        String s = this.executePost(CLICKATELL_UTILS_BASE_URL + "routecoverage.php", nameValuePairs);
+        Reply reply = this.executePost(coverageRequest.begin().add("msisdn", number).toRequest(), true);
         // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
-        if (s.startsWith("ERR")) {
+        checkAuth(reply);
+        if (reply.isError() || reply.charge == null) {
             return -1;
         }
-        String[] a = s.split("Charge: ");
-        return Double.parseDouble(a[1]);
+        // Format: OK: xxx Charge: xxx
+        return Double.parseDouble(reply.charge);
     }
 
     /**
@@ -336,120 +605,620 @@ public class ClickatellHttp {
      */
     public Message[] sendAdvancedMessage(String[] numbers, String message,
                                          HashMap<String, String> features) throws Exception {
-        ArrayList<Message> messages = new ArrayList<Message>();
+        return toMessages(sendAdvancedMessageBatch(numbers, message, features));
+    }
+
+    /**
+     * This is sendAdvancedMessage, but the results are returned as a MessageBatch.
+     *
+     * @param numbers  The list of numbers that must be sent to.
+     * @param message  The message that is to be sent.
+     * @param features The extra features that should be included.
+     * @return The number and the message ID or error of each message.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws Exception                     There are errors that get thrown, you should catch them.
+     */
+    public MessageBatch sendAdvancedMessageBatch(String[] numbers, String message, Map<String, String> features)
+            throws Exception {
+        numbers = normalize(numbers);
+        if (numbers.length == 0) {
+            return MessageBatch.EMPTY;
+        }
         // Build Parameters:
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(5);
-        nameValuePairs.add(new BasicNameValuePair("user", this.userName));
-        nameValuePairs.add(new BasicNameValuePair("api_id", this.apiId));
-        nameValuePairs.add(new BasicNameValuePair("password", this.password));
-        String number = numbers[0];
-        for (int x = 1; x < numbers.length; x++) {
-            number += "," + numbers[x];
+        FormRequestTemplate.Body body = sendRequest.begin().addList("to", numbers);
+        int parts = addText(body, message, features);
+        for (Map.Entry<String, String> entry : features.entrySet()) {
+            body.add(entry.getKey(), entry.getValue());
         }
-        nameValuePairs.add(new BasicNameValuePair("to", number));
-        nameValuePairs.add(new BasicNameValuePair("text", message));
 
         // Send Request:
-        for (Map.Entry<String, String> entry : features.entrySet()) {
-            nameValuePairs.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+        return this.executeSend(body.toRequest(), numbers, message, parts);
+    }
+
+    /**
+     * This adds the text of a message, and the unicode and concat parameters that it
+     * needs (see SmsEncoding), unless the features already have them. Unicode text
+     * is sent as UCS-2 hex.
+     *
+     * @param body     The request to add the text to.
+     * @param message  The text of the message.
+     * @param features The features the request is sent with, may be null.
+     * @return The number of parts the message is sent as.
+     */
+    private static int addText(FormRequestTemplate.Body body, String message, Map<String, String> features) {
+        SmsEncoding encoding = SmsEncoding.analyze(message);
+        if (encoding.isUnicode() && (features == null || !features.containsKey("unicode"))) {
+            body.add("unicode", "1").addUnicode("text", message);
+        } else {
+            body.add("text", message);
+        }
+        if (encoding.getSegments() > 1 && (features == null || !features.containsKey("concat"))) {
+            body.add("concat", Integer.toString(encoding.getSegments()));
         }
+        return encoding.getSegments();
+    }
 
-        // Send Request:
-        String s = this.executePost(CLICKATELL_UTILS_BASE_URL + "routecoverage.php", nameValuePairs);
-        // Check whether an auth failed happened:
-        if (s.contains("Authentication failed")) {
-            throw new Exception("Authentication Failed");
-        }
-
-        // This does some fancy swapping:
-        String lines[] = s.split("\n");
-        if (lines.length > 1) { // Sent more than one message
-            for (String l : lines) {
-                Message m = new Message();
-                String i[] = l.split(" To: ");
-                m.number = i[1];
-                String n[] = i[0].split(": ");
-                if (n[0].equalsIgnoreCase("err")) {
-                    m.error = n[1];
-                } else {
-                    m.message_id = n[1];
-                }
+    /**
+     * This turns a batch into a Message per number, for code that wants the array.
+     *
+     * @param batch The batch to convert.
+     * @return A message for each message of the batch, in the same order.
+     */
+    public static Message[] toMessages(MessageBatch batch) {
+        Message[] messages = new Message[batch.size()];
+        for (int i = 0; i < messages.length; i++) {
+            Message m = new Message(batch.getMessageId(i));
+            m.number = batch.getNumber(i);
+            m.content = batch.getText();
+            m.status = MessageBatch.formatCode(batch.getStatus(i));
+            m.error = batch.getError(i);
+            messages[i] = m;
+        }
+        return messages;
+    }
+
+    /**
+     * This turns messages back into a batch.
+     *
+     * @param messages The messages to convert.
+     * @return A batch with the number, message ID, status and error of each message.
+     */
+    public static MessageBatch toBatch(Message[] messages) {
+        MessageBatch.Builder builder = new MessageBatch.Builder(
+                messages.length == 0 ? null : messages[0].content, messages.length);
+        for (Message m : messages) {
+            builder.add(m.number, m.message_id, MessageBatch.parseCode(m.status),
+                    MessageBatch.parseCode(m.error), m.error);
+        }
+        return builder.build();
+    }
+
+    /**
+     * This sets the cache that getCoverage checks before asking the API. The same
+     * cache can be shared by several clients.
+     *
+     * @param coverageCache The cache to use, or null to always ask the API.
+     */
+    public void setCoverageCache(CoverageCache coverageCache) {
+        this.coverageCache = coverageCache;
+    }
+
+    /**
+     * @return The cache that getCoverage checks, or null if there is none.
+     */
+    public CoverageCache getCoverageCache() {
+        return coverageCache;
+    }
+
+    /**
+     * This sets the ledger that every sent message is charged to, see BalanceLedger.
+     *
+     * @param balanceLedger The ledger to charge, or null for none.
+     */
+    public void setBalanceLedger(BalanceLedger balanceLedger) {
+        this.balanceLedger = balanceLedger;
+    }
+
+    /**
+     * @return The ledger that sent messages are charged to, or null if there is none.
+     */
+    public BalanceLedger getBalanceLedger() {
+        return balanceLedger;
+    }
+
+    /**
+     * This sets the rate limiter that every send takes a token per number from.
+     * Share one TokenBucket between all the clients of the same account.
+     * <p/>
+     * A request can have up to 300 numbers. With a non-blocking bucket whose burst
+     * is smaller than that, such a request waits for the bucket to be full, empties
+     * it, and the tokens it is short are paid back before the next send goes
+     * through. Sends are never turned down forever.
+     *
+     * @param rateLimiter The limiter to use, or null to send as fast as possible.
+     */
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return The rate limiter sends take tokens from, or null if there is none.
+     */
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * This sets the normalizer that every list of numbers goes through before it is
+     * sent to, so that badly formatted numbers are fixed or dropped, and repeats are
+     * only sent to once. Single sends are not normalized. The dropped numbers are not
+     * in the results, see RecipientNormalizer.setDropListener to hear about them.
+     *
+     * @param recipientNormalizer The normalizer to use, or null to send to the numbers as given.
+     */
+    public void setRecipientNormalizer(RecipientNormalizer recipientNormalizer) {
+        this.recipientNormalizer = recipientNormalizer;
+    }
+
+    /**
+     * @return The normalizer lists of numbers go through, or null if there is none.
+     */
+    public RecipientNormalizer getRecipientNormalizer() {
+        return recipientNormalizer;
+    }
+
+    /**
+     * This sets the policy that failed requests are retried with. Lookups are retried
+     * on any failure the policy thinks will pass, sends only when the gateway cannot
+     * have received them. By default RetryPolicy.getDefault() is used.
+     *
+     * @param retryPolicy The policy to use, RetryPolicy.NONE to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Use RetryPolicy.NONE to turn retries off");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return The policy that failed requests are retried with.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * This sets the executor that the ...Async calls run on. By default the shared
+     * executor from ClickatellAsync is used.
+     *
+     * @param executor The executor to use, see ClickatellAsync.newBoundedExecutor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * @return The executor that the ...Async calls run on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * This is the asynchronous version of testAuth, it runs on this object's executor.
+     *
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for whether the details were accepted.
+     */
+    public Future<Boolean> testAuthAsync(ClickatellCallback<Boolean> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return testAuth();
             }
-        } else { // Sent one message
-            String n[] = lines[0].split(": ");
-            Message m = new Message();
-            m.number = numbers[0];
-            if (n[0].equalsIgnoreCase("err")) {
-                m.error = n[1];
-            } else {
-                m.message_id = n[1];
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getBalance, it runs on this object's executor.
+     *
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for your balance.
+     */
+    public Future<Double> getBalanceAsync(ClickatellCallback<Double> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return getBalance();
             }
-        }
-        return messages.toArray(new Message[0]);
+        }, callback);
     }
 
     /**
-     * This executes a POST query with the given parameters.
+     * This is the asynchronous version of sendMessage, it runs on this object's executor.
      *
-     * @param targetURL      The URL that should get hit.
-     * @param nameValuePairs The data you want to send via the POST.
-     * @return The content of the request.
-     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @param number   See sendMessage.
+     * @param message  See sendMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent message.
      */
-    private String executePost(String targetURL, List<NameValuePair> nameValuePairs) throws UnknownHostException {
-        // Create a new HttpClient and Post Header
-        HttpClient httpclient = new DefaultHttpClient();
-        HttpPost httppost = new HttpPost(targetURL);
+    public Future<Message> sendMessageAsync(final String number, final String message, ClickatellCallback<Message> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message>() {
+            @Override
+            public Message call() throws Exception {
+                return sendMessage(number, message);
+            }
+        }, callback);
+    }
 
-        try {
-            // Add your data
-            httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+    /**
+     * This is the asynchronous version of sendMessage, it runs on this object's executor.
+     *
+     * @param numbers  See sendMessage.
+     * @param message  See sendMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendMessageAsync(final String[] numbers, final String message, ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendMessage(numbers, message);
+            }
+        }, callback);
+    }
 
-            // Execute HTTP Post Request
-            HttpResponse response = httpclient.execute(httppost);
+    /**
+     * This is the asynchronous version of sendBulkMessage, it runs on this object's executor.
+     *
+     * @param numbers     See sendBulkMessage.
+     * @param message     See sendBulkMessage.
+     * @param parallelism See sendBulkMessage.
+     * @param callback    Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendBulkMessageAsync(final String[] numbers, final String message, final int parallelism, ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendBulkMessage(numbers, message, parallelism);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendBulkMessageBatch, it runs on this object's executor.
+     *
+     * @param numbers     See sendBulkMessageBatch.
+     * @param message     See sendBulkMessageBatch.
+     * @param parallelism See sendBulkMessageBatch.
+     * @param callback    Told the result once the request is done, this may be null.
+     * @return A future for the batch of sent messages.
+     */
+    public Future<MessageBatch> sendBulkMessageBatchAsync(final String[] numbers, final String message,
+                                                          final int parallelism,
+                                                          ClickatellCallback<MessageBatch> callback) {
+        return ClickatellAsync.submit(executor, new Callable<MessageBatch>() {
+            @Override
+            public MessageBatch call() throws Exception {
+                return sendBulkMessageBatch(numbers, message, parallelism);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getMessageStatus, it runs on this object's executor.
+     *
+     * @param messageId See getMessageStatus.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the status of the message.
+     */
+    public Future<Integer> getMessageStatusAsync(final String messageId, ClickatellCallback<Integer> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return getMessageStatus(messageId);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getMessageCharge, it runs on this object's executor.
+     *
+     * @param messageId See getMessageCharge.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the message with its status and charge.
+     */
+    public Future<Message> getMessageChargeAsync(final String messageId, ClickatellCallback<Message> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message>() {
+            @Override
+            public Message call() throws Exception {
+                return getMessageCharge(messageId);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getMessageStatuses, it runs on this object's executor.
+     *
+     * @param messageIds  See getMessageStatuses.
+     * @param concurrency See getMessageStatuses.
+     * @param listener    See getMessageStatuses.
+     * @param callback    Told the number of message IDs looked up once they are all done, this may be null.
+     * @return A future for the number of message IDs looked up.
+     */
+    public Future<Integer> getMessageStatusesAsync(final Iterable<String> messageIds, final int concurrency,
+                                          final BulkQueryListener<Integer> listener,
+                                          ClickatellCallback<Integer> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return getMessageStatuses(messageIds, concurrency, listener);
+            }
+        }, callback);
+    }
 
-            return inputStreamToString(response.getEntity().getContent());
+    /**
+     * This is the asynchronous version of getMessageCharges, it runs on this object's executor.
+     *
+     * @param messageIds  See getMessageCharges.
+     * @param concurrency See getMessageCharges.
+     * @param listener    See getMessageCharges.
+     * @param callback    Told the number of message IDs looked up once they are all done, this may be null.
+     * @return A future for the number of message IDs looked up.
+     */
+    public Future<Integer> getMessageChargesAsync(final Iterable<String> messageIds, final int concurrency,
+                                          final BulkQueryListener<Message> listener,
+                                          ClickatellCallback<Integer> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return getMessageCharges(messageIds, concurrency, listener);
+            }
+        }, callback);
+    }
 
-        } catch (UnknownHostException e) {
-            throw e;
-        } catch (ClientProtocolException e) {
-        } catch (IOException e) {
+    /**
+     * This is the asynchronous version of stopMessage, it runs on this object's executor.
+     *
+     * @param messageId See stopMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the status of the message.
+     */
+    public Future<Integer> stopMessageAsync(final String messageId, ClickatellCallback<Integer> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return stopMessage(messageId);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getCoverage, it runs on this object's executor.
+     *
+     * @param number   See getCoverage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the minimum charge, or -1.
+     */
+    public Future<Double> getCoverageAsync(final String number, ClickatellCallback<Double> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return getCoverage(number);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendAdvancedMessage, it runs on this object's executor.
+     *
+     * @param numbers  See sendAdvancedMessage.
+     * @param message  See sendAdvancedMessage.
+     * @param features See sendAdvancedMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendAdvancedMessageAsync(final String[] numbers, final String message,
+                                                      final HashMap<String, String> features,
+                                                      ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendAdvancedMessage(numbers, message, features);
+            }
+        }, callback);
+    }
+
+    /**
+     * This executes a POST query with the given parameters, and decodes the first
+     * line of the reply.
+     *
+     * @param httppost   The request, see FormRequestTemplate.
+     * @param idempotent Whether the request only reads, and so may be retried on any transient failure.
+     * @return The first line of the reply, this will be empty if the reply was empty.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws IOException                   If the request failed, after any retries.
+     */
+    private Reply executePost(HttpPost httppost, boolean idempotent) throws IOException {
+        Reply reply = this.executePost(httppost, new ResponseHandler<Reply>() {
+            @Override
+            public Reply handleResponse(HttpResponse response) throws IOException {
+                return HttpReplyDecoder.decodeFirst(response.getEntity().getContent());
+            }
+        }, idempotent);
+        return reply == null ? new Reply() : reply;
+    }
+
+    /**
+     * This executes a send, and turns every line of the reply into a message.
+     *
+     * @param httppost The request, see FormRequestTemplate.
+     * @param numbers  The numbers that were sent to.
+     * @param message  The message that was sent.
+     * @param parts    The number of SMS parts each message is sent as.
+     * @return A message for each line of the reply.
+     * @throws Exception If the request or the authentication failed, or the rate limiter did not allow the send.
+     */
+    private MessageBatch executeSend(HttpPost httppost, final String[] numbers, String message, final int parts)
+            throws Exception {
+        throttle(numbers.length);
+        final MessageBatch.Builder batch = new MessageBatch.Builder(message, numbers.length);
+        final boolean[] authFailed = new boolean[1];
+        this.executePost(httppost, new ResponseHandler<Void>() {
+            @Override
+            public Void handleResponse(HttpResponse response) throws IOException {
+                HttpReplyDecoder.decode(response.getEntity().getContent(), new HttpReplyDecoder.ReplyHandler() {
+                    @Override
+                    public void onReply(Reply reply) {
+                        if (reply.errorCode == HttpReplyDecoder.ERROR_AUTHENTICATION_FAILED && reply.to == null) {
+                            authFailed[0] = true;
+                            return;
+                        }
+                        if (reply.to == null && reply.isError() && numbers.length > 1) {
+                            // An error for the whole request, such as "ERR: 301, No credit
+                            // left", is the error of every number it was for:
+                            for (int j = batch.size(); j < numbers.length; j++) {
+                                batch.add(numbers[j], null, reply.status, reply.errorCode, reply.error);
+                            }
+                            return;
+                        }
+                        int i = batch.size();
+                        // A single number gets a reply without To, and otherwise keep
+                        // the number that was sent, rather than its copy:
+                        String number = reply.to;
+                        if (i < numbers.length && (number == null || numbers[i].equals(number))) {
+                            number = numbers[i];
+                        }
+                        if (reply.isError()) {
+                            batch.add(number, null, reply.status, reply.errorCode, reply.error);
+                        } else {
+                            batch.add(number, reply.id, reply.status, -1, null);
+                            chargeSent(reply.id, parts);
+                        }
+                    }
+                });
+                return null;
+            }
+        }, false);
+        if (authFailed[0]) {
+            throw new ClickatellException(HttpReplyDecoder.ERROR_AUTHENTICATION_FAILED, "Authentication Failed");
         }
-        return "";
+        return batch.build();
     }
 
     /**
-     * This takes in the input stream and attempts to get the data into one stream and returns it.
+     * This executes a POST query on a pooled connection, retrying it as the retry
+     * policy allows.
      *
-     * @param is The input stream.
-     * @return The string of the entire input stream.
-     * @throws IOException
+     * @param httppost   The request, see FormRequestTemplate.
+     * @param handler    The handler that decodes the response.
+     * @param idempotent Whether the request only reads, and so may be retried on any transient failure.
+     * @return What the handler returned.
+     * @throws java.net.UnknownHostException This is thrown if the HOST cannot be found. Maybe you are not on the internet?
+     * @throws IOException                   If the request failed, after any retries.
      */
-    private String inputStreamToString(InputStream is) throws IOException {
-        String line;
-        StringBuilder total = new StringBuilder();
+    private <T> T executePost(HttpPost httppost, ResponseHandler<T> handler, boolean idempotent) throws IOException {
+        return retryPolicy.execute(transport, httppost, handler, idempotent);
+    }
 
-        // Wrap a BufferedReader around the InputStream
-        BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+    /**
+     * This sends queued messages, and marks each chunk in the queue as it comes back,
+     * see OutboundQueue.settle, so the marks are kept even if a later chunk fails.
+     */
+    private MessageBatch sendAndAcknowledge(final OutboundQueue queue, long[] sequences, String[] numbers,
+                                            final String message) throws Exception {
+        final Map<String, List<Long>> byNumber = OutboundQueue.byNumber(sequences, numbers);
+        // The numbers were normalized before they were queued:
+        return BulkDispatcher.dispatch(numbers, MAX_RECIPIENTS_PER_REQUEST, DEFAULT_BULK_PARALLELISM, executor,
+                new BulkDispatcher.ChunkSender() {
+                    @Override
+                    public MessageBatch send(String[] chunk) throws Exception {
+                        MessageBatch results = sendChunk(chunk, message);
+                        queue.settle(results, byNumber);
+                        return results;
+                    }
+                });
+    }
 
-        // Read response until the end
-        while ((line = rd.readLine()) != null) {
-            total.append(line);
-            total.append("\n");
+    /**
+     * This runs the numbers through the normalizer, if there is one.
+     *
+     * @param numbers The numbers as given.
+     * @return The numbers to send to.
+     */
+    private String[] normalize(String[] numbers) {
+        RecipientNormalizer normalizer = this.recipientNormalizer;
+        return normalizer == null ? numbers : normalizer.normalize(numbers).getNumbers();
+    }
+
+    /**
+     * This takes a token per message from the rate limiter, if there is one.
+     *
+     * @param messages The number of messages about to be sent.
+     * @throws Exception If a non-blocking limiter has no tokens, or the wait was interrupted.
+     */
+    private void throttle(int messages) throws Exception {
+        TokenBucket limiter = this.rateLimiter;
+        if (limiter != null) {
+            limiter.take(messages);
+        }
+    }
+
+    /**
+     * This charges a sent message to the ledger, if there is one.
+     *
+     * @param messageId The ID of the message that was sent.
+     * @param parts     The number of SMS parts it was sent as.
+     */
+    private void chargeSent(String messageId, int parts) {
+        BalanceLedger ledger = this.balanceLedger;
+        if (ledger != null) {
+            ledger.debitEstimated(messageId, parts);
+        }
+    }
+
+    /**
+     * This tells the ledger, if there is one, the real charge of a message.
+     *
+     * @param messageId The ID of the message.
+     * @param charge    The charge as returned by the API.
+     */
+    private void settleCharge(String messageId, String charge) {
+        BalanceLedger ledger = this.balanceLedger;
+        if (ledger != null && charge != null) {
+            try {
+                ledger.settle(messageId, Double.parseDouble(charge));
+            } catch (NumberFormatException e) {
+                // Leave the estimate.
+            }
         }
+    }
 
-        // Return full string
-        return total.toString().trim();
+    /**
+     * This throws if the reply says that the authentication failed.
+     *
+     * @param reply The reply to check.
+     * @throws Exception If the authentication failed.
+     */
+    private void checkAuth(Reply reply) throws Exception {
+        if (reply.errorCode == HttpReplyDecoder.ERROR_AUTHENTICATION_FAILED) {
+            throw new ClickatellException(HttpReplyDecoder.ERROR_AUTHENTICATION_FAILED, "Authentication Failed");
+        }
     }
 
     /**
      * This is the Message class that gets used as return values for some of the
-     * functions.
+     * functions. For results of many messages see MessageBatch.
      *
      * @author Dominic Schaff <dominic.schaff@gmail.com>
      *
      */
-    public class Message {
+    public static class Message {
         public String number = null, message_id = null, content = null,
                 charge = null, status = null, error = null;
 
@@ -1,23 +1,34 @@
 package com.schaff.clickatellsample;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
+import org.apache.http.message.BasicHeader;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This is an example of how to use the Clickatell REST API. NOTE: this is not
@@ -27,25 +38,143 @@ import java.util.Map;
  * @author Dominic Schaff <dominic.schaff@gmail.com>
  * @date Dec 2, 2014
  */
-public class ClickatellRest {
+public class ClickatellRest implements ClickatellClient {
 
     /**
-     * @var The URL to use for the base of the REST API.
+     * @var The URL to use for the base of the REST API, unless the constructor is given another.
      */
-   private static final String CLICKATELL_REST_BASE_URL = "https://api.clickatell.com/rest/";
+    public static final String CLICKATELL_REST_BASE_URL = "https://api.clickatell.com/rest/";
 
     private static final int POST = 1, GET = 0, DELETE = 2;
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * @var The most numbers sendBulkMessage puts in one message request.
+     */
+    public static final int MAX_RECIPIENTS_PER_REQUEST = 300;
+
+    /**
+     * @var The number of requests sendBulkMessage has in flight at once, if not told otherwise.
+     */
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
+
+    /**
+     * @var The most numbers a message request body is built in memory for. The body of
+     * a bigger request is written straight to the connection, with chunked transfer.
+     */
+    public static final int STREAMING_THRESHOLD = 1000;
+
+    /**
+     * @var Every thread writes the bodies of its message requests into its own buffer.
+     */
+    private static final ThreadLocal<JsonStreamWriter> BODIES = new ThreadLocal<JsonStreamWriter>() {
+        @Override
+        protected JsonStreamWriter initialValue() {
+            return new JsonStreamWriter();
+        }
+    };
+
     /**
      * @var The three private variables to use for authentication.
      */
     private String apiKey;
 
+    /**
+     * @var The base URL of the REST API that requests are sent to.
+     */
+    private final String baseUrl;
+
+    /**
+     * @var The transport that requests are sent through.
+     */
+    private final ClickatellTransport transport;
+
+    /**
+     * @var The cache of coverage lookups, or null to always ask the API.
+     */
+    private volatile CoverageCache coverageCache;
+
+    /**
+     * @var The ledger that sent messages are charged to, or null.
+     */
+    private volatile BalanceLedger balanceLedger;
+
+    /**
+     * @var The rate limiter that sends take tokens from, or null.
+     */
+    private volatile TokenBucket rateLimiter;
+
+    /**
+     * @var The normalizer that lists of numbers go through before they are sent to, or null.
+     */
+    private volatile RecipientNormalizer recipientNormalizer;
+
+    /**
+     * @var The policy that failed requests are retried with.
+     */
+    private volatile RetryPolicy retryPolicy = RetryPolicy.getDefault();
+
+    /**
+     * @var The headers sent with every request, these are built once.
+     */
+    private final Header[] headers;
+
+    /**
+     * @var The parsed URI of the message call, which every send goes to.
+     */
+    private final URI messageUri;
+
+    /**
+     * @var The executor that the ...Async calls run on.
+     */
+    private volatile ExecutorService executor = ClickatellAsync.getDefaultExecutor();
+
+    /**
+     * @var This turns a response into a string, see inputStreamToString.
+     */
+    private final ResponseHandler<String> stringResponseHandler = new ResponseHandler<String>() {
+        @Override
+        public String handleResponse(HttpResponse response) throws IOException {
+            return inputStreamToString(response.getEntity().getContent());
+        }
+    };
+
     /**
      * Create a REST object, and set the auth, but not test the auth.
+     * This object will use the shared default transport.
      */
     public ClickatellRest(String apiKey) {
+        this(apiKey, ClickatellTransport.getDefault());
+    }
+
+    /**
+     * Create a REST object that sends its requests through the given transport, and
+     * set the auth, but not test the auth.
+     */
+    public ClickatellRest(String apiKey, ClickatellTransport transport) {
+        this(apiKey, transport, CLICKATELL_REST_BASE_URL);
+    }
+
+    /**
+     * Create a REST object that sends its requests to the given base URL, for example
+     * a local stand-in server for testing, and set the auth, but not test the auth.
+     *
+     * @param baseUrl The base URL of the REST API, see CLICKATELL_REST_BASE_URL.
+     */
+    public ClickatellRest(String apiKey, ClickatellTransport transport, String baseUrl) {
         this.apiKey = apiKey;
+        this.transport = transport;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.headers = new Header[]{
+                new BasicHeader("Content-Type", "application/json"),
+                new BasicHeader("Accept", "application/json"),
+                new BasicHeader("X-Version", "1"),
+                new BasicHeader("Authorization", "Bearer " + apiKey)
+        };
+        this.messageUri = URI.create(this.baseUrl + "message");
     }
 
     /**
@@ -76,26 +205,12 @@ public class ClickatellRest {
      */
     public Message sendMessage(String number, String message) throws Exception {
         // Send Request:
-        String response = this.execute("message", POST, "{\"to\":[\"" + number
-                + "\"],\"text\":\"" + message + "\"}");
-        JSONObject obj = new JSONObject(response);
-
-        CheckForError(obj);
-        Message msg = new Message();
-        JSONObject objData = obj.getJSONObject("data");
-        JSONArray msgArray = objData.getJSONArray("message");
-        JSONObject firstMsg = msgArray.getJSONObject(0);
-        msg.number = firstMsg.getString("to");
-        if (!firstMsg.getBoolean("accepted")) {
-            try {
-                CheckForError(firstMsg);
-            } catch (Exception e) {
-                msg.error = e.getMessage();
-            }
-        } else {
-            msg.message_id = firstMsg.getString("apiMessageId");
+        String[] numbers = {number};
+        MessageBatch batch = this.sendMessages(numbers, message, null);
+        if (batch.size() == 0) {
+            throw new Exception("No message was returned");
         }
-        return msg;
+        return toMessage(batch, 0);
     }
 
     /**
@@ -109,36 +224,171 @@ public class ClickatellRest {
      */
     public Message[] sendMessage(String[] numbers, String message)
             throws Exception {
-        String number = numbers[0];
-        for (int x = 1; x < numbers.length; x++) {
-            number += "\",\"" + numbers[x];
-        }
-        ArrayList<Message> messages = new ArrayList<>();
+        return toMessages(sendMessageBatch(numbers, message));
+    }
 
+    /**
+     * This is sendMessage, but the results are returned as a MessageBatch, which
+     * takes a fraction of the memory of a Message per number.
+     *
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message.
+     * @throws Exception This gets thrown on auth errors.
+     */
+    public MessageBatch sendMessageBatch(String[] numbers, String message) throws Exception {
+        numbers = normalize(numbers);
         // Send Request:
-        String response = this.execute("message", POST, "{\"to\":[\"" + number
-                + "\"],\"text\":\"" + message + "\"}");
-        JSONObject obj = new JSONObject(response);
+        return this.sendMessages(numbers, message, null);
+    }
 
-        CheckForError(obj);
-        JSONObject objData = obj.getJSONObject("data");
-        JSONArray msgArray = objData.getJSONArray("message");
-        for (int i = 0; i < msgArray.length(); i++) {
-            Message msg = new Message();
-            JSONObject firstMsg = msgArray.getJSONObject(i);
-            msg.number = firstMsg.getString("to");
-            if (!firstMsg.getBoolean("accepted")) {
-                try {
-                    CheckForError(firstMsg);
-                } catch (Exception e) {
-                    msg.error = e.getMessage();
-                }
-            } else {
-                msg.message_id = firstMsg.getString("apiMessageId");
+    /**
+     * This sends the same message to any number of people. The numbers are split into
+     * requests of at most MAX_RECIPIENTS_PER_REQUEST, and DEFAULT_BULK_PARALLELISM of
+     * those requests are sent at a time.
+     *
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return Message array, in the same order as the numbers, with the message ID or error per number.
+     * @throws Exception This gets thrown on auth errors.
+     */
+    public Message[] sendBulkMessage(String[] numbers, String message) throws Exception {
+        return sendBulkMessage(numbers, message, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * This sends the same message to any number of people. The numbers are split into
+     * requests of at most MAX_RECIPIENTS_PER_REQUEST, and the requests are sent
+     * concurrently on this object's executor.
+     *
+     * @param numbers     The array of numbers that are to be sent to.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once.
+     * @return Message array, in the same order as the numbers, with the message ID or error per number.
+     * @throws Exception This gets thrown on auth errors. If one request fails the requests
+     *                   that have not been sent yet are dropped, and if others were sent it is a
+     *                   PartialSendException with their results.
+     */
+    public Message[] sendBulkMessage(String[] numbers, String message, int parallelism) throws Exception {
+        return toMessages(sendBulkMessageBatch(numbers, message, parallelism));
+    }
+
+    /**
+     * This is sendBulkMessage, but the results are returned as a MessageBatch, which
+     * takes a fraction of the memory of a Message per number. Use this for big
+     * campaigns.
+     *
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown on auth errors.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message) throws Exception {
+        return sendBulkMessageBatch(numbers, message, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * This is sendBulkMessage, with the results returned as a MessageBatch.
+     *
+     * @param numbers     The array of numbers that are to be sent to.
+     * @param message     The message that you would like to send.
+     * @param parallelism The most requests to have in flight at once.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown on auth errors. If one request fails the requests
+     *                   that have not been sent yet are dropped, and if others were sent it is a
+     *                   PartialSendException with their results.
+     */
+    public MessageBatch sendBulkMessageBatch(String[] numbers, String message, int parallelism)
+            throws Exception {
+        return dispatch(normalize(numbers), message, parallelism);
+    }
+
+    /**
+     * This sends to numbers that have already been normalized, in chunks, see sendBulkMessageBatch.
+     */
+    private MessageBatch dispatch(String[] numbers, final String message, int parallelism) throws Exception {
+        return BulkDispatcher.dispatch(numbers, MAX_RECIPIENTS_PER_REQUEST, parallelism, executor,
+                new BulkDispatcher.ChunkSender() {
+                    @Override
+                    public MessageBatch send(String[] chunk) throws Exception {
+                        return sendMessages(chunk, message, null);
+                    }
+                });
+    }
+
+    /**
+     * This sends the same message to any number of people, like sendBulkMessage, but
+     * writes every message to the queue first, and waits until they are on disk.
+     * Each message that gets a message ID is marked as done in the queue as its
+     * request comes back, and each one turned down because of its number is
+     * discarded, so if the send fails or the process dies part way through, the
+     * rest can be sent with resendPending.
+     *
+     * @param queue   The queue to write the messages to.
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return Message array, in the same order as the numbers, with the message ID or error per number.
+     * @throws Exception This gets thrown on auth errors. Messages that were not sent stay in the queue.
+     */
+    public Message[] sendQueuedMessage(OutboundQueue queue, String[] numbers, String message) throws Exception {
+        return toMessages(sendQueuedMessageBatch(queue, numbers, message));
+    }
+
+    /**
+     * This is sendQueuedMessage, but the results are returned as a MessageBatch.
+     *
+     * @param queue   The queue to write the messages to.
+     * @param numbers The array of numbers that are to be sent to.
+     * @param message The message that you would like to send.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws Exception This gets thrown on auth errors. Messages that were not sent stay in the queue.
+     */
+    public MessageBatch sendQueuedMessageBatch(OutboundQueue queue, String[] numbers, String message)
+            throws Exception {
+        numbers = normalize(numbers);
+        long[] sequences = new long[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            sequences[i] = queue.enqueue(numbers[i], message);
+        }
+        if (numbers.length > 0) {
+            // One wait covers every entry before it:
+            queue.awaitDurable(sequences[numbers.length - 1]);
+        }
+        return sendAndAcknowledge(queue, sequences, numbers, message);
+    }
+
+    /**
+     * This sends the messages that are not done in the queue, for example because
+     * the process died part way through a campaign, or a send failed. Messages with
+     * the same text are sent together. Do not call it while another send from the
+     * queue is running, as the messages of that send would go out twice.
+     *
+     * @param queue The queue to send the pending messages of.
+     * @return The number of messages that were sent.
+     * @throws Exception This gets thrown on auth errors. Messages that were not sent stay in the queue.
+     */
+    public int resendPending(OutboundQueue queue) throws Exception {
+        Map<String, List<OutboundQueue.Entry>> byText = new LinkedHashMap<String, List<OutboundQueue.Entry>>();
+        for (OutboundQueue.Entry entry : queue.getPending()) {
+            List<OutboundQueue.Entry> entries = byText.get(entry.getText());
+            if (entries == null) {
+                entries = new ArrayList<OutboundQueue.Entry>();
+                byText.put(entry.getText(), entries);
+            }
+            entries.add(entry);
+        }
+        int sent = 0;
+        for (Map.Entry<String, List<OutboundQueue.Entry>> group : byText.entrySet()) {
+            List<OutboundQueue.Entry> entries = group.getValue();
+            long[] sequences = new long[entries.size()];
+            String[] numbers = new String[entries.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                sequences[i] = entries.get(i).getSequence();
+                numbers[i] = entries.get(i).getNumber();
             }
-            messages.add(msg);
+            sent += sendAndAcknowledge(queue, sequences, numbers, group.getKey()).getAcceptedCount();
         }
-        return messages.toArray(new Message[0]);
+        return sent;
     }
 
     /**
@@ -160,12 +410,34 @@ public class ClickatellRest {
         JSONObject objData = obj.getJSONObject("data");
         msg.message_id = objData.getString("apiMessageId");
         msg.charge = String.valueOf(objData.get("charge"));
+        settleCharge(msg.message_id, msg.charge);
         msg.status = objData.getString("messageStatus");
         msg.statusString = objData.getString("description");
 
         return msg;
     }
 
+    /**
+     * This looks up the status and charge of many messages, with at most the given number of lookups
+     * in flight at once. Each result is handed to the listener as soon as it is in,
+     * so results can be used while the rest are still being looked up. The lookups
+     * share this object's transport, so there is no point in a concurrency higher
+     * than its connections per route.
+     *
+     * @param messageIds  The message IDs to look up, these are read one at a time.
+     * @param concurrency The most lookups to have in flight at once.
+     * @param listener    Told the result of each lookup, from several threads.
+     * @return The number of message IDs that were looked up.
+     */
+    public int getMessageStatuses(Iterable<String> messageIds, int concurrency, BulkQueryListener<Message> listener) {
+        return BulkQuery.run(messageIds, concurrency, executor, new BulkQuery.Lookup<Message>() {
+            @Override
+            public Message lookup(String messageId) throws Exception {
+                return getMessageStatus(messageId);
+            }
+        }, listener);
+    }
+
     /**
      * This will try to stop a message that has been sent. Note that only
      * messages that are going to be sent in the future can be stopped. Or if by
@@ -205,51 +477,154 @@ public class ClickatellRest {
      */
     public Message[] sendAdvancedMessage(String[] numbers,
                                          String message, HashMap<String, String> features) throws Exception {
-        ArrayList<Message> messages = new ArrayList<>();
-        String dataPacket = "{\"to\":[\"" + numbers[0];
-        for (int x = 1; x < numbers.length; x++) {
-            dataPacket += "\",\"" + numbers[x];
+        return toMessages(sendAdvancedMessageBatch(numbers, message, features));
+    }
+
+    /**
+     * This is sendAdvancedMessage, but the results are returned as a MessageBatch.
+     *
+     * @param numbers  The list of numbers that must be sent to.
+     * @param message  The message that is to be sent.
+     * @param features The extra features that should be included.
+     * @return The number and the message ID or error of each message.
+     * @throws Exception If there is anything wrong with the submission this will get
+     *                   thrown.
+     */
+    public MessageBatch sendAdvancedMessageBatch(String[] numbers, String message, Map<String, String> features)
+            throws Exception {
+        numbers = normalize(numbers);
+        // Send Request:
+        return this.sendMessages(numbers, message, features);
+    }
+
+    /**
+     * This turns a batch into a Message per number, for code that wants the array.
+     *
+     * @param batch The batch to convert.
+     * @return A message for each message of the batch, in the same order.
+     */
+    public static Message[] toMessages(MessageBatch batch) {
+        Message[] messages = new Message[batch.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = toMessage(batch, i);
         }
-        dataPacket += "\"],\"text\":\"" + message + "\"";
-        for (Map.Entry<String, String> entry : features.entrySet()) {
-            dataPacket += ",\"" + entry.getKey() + "\":\""
-                    + entry.getValue() + "\"";
+        return messages;
+    }
+
+    /**
+     * This turns messages back into a batch.
+     *
+     * @param messages The messages to convert.
+     * @return A batch with the number, message ID, status and error of each message.
+     */
+    public static MessageBatch toBatch(Message[] messages) {
+        MessageBatch.Builder builder = new MessageBatch.Builder(null, messages.length);
+        for (Message m : messages) {
+            builder.add(m.number, m.message_id, MessageBatch.parseCode(m.status), -1, m.error);
         }
-        dataPacket += "}";
+        return builder.build();
+    }
 
-        // Send Request:
-        String response = this.execute("message", POST, dataPacket);
-        JSONObject obj = new JSONObject(response);
+    private static Message toMessage(MessageBatch batch, int index) {
+        Message msg = new Message(batch.getMessageId(index));
+        msg.number = batch.getNumber(index);
+        msg.status = MessageBatch.formatCode(batch.getStatus(index));
+        msg.error = batch.getError(index);
+        return msg;
+    }
 
-        CheckForError(obj);
-        JSONObject objData = obj.getJSONObject("data");
-        JSONArray msgArray = objData.getJSONArray("message");
-        for (int i = 0; i < msgArray.length(); i++) {
-            Message msg = new Message();
-            JSONObject firstMsg = msgArray.getJSONObject(i);
-            msg.number = firstMsg.getString("to");
-            if (!firstMsg.getBoolean("accepted")) {
-                try {
-                    CheckForError(firstMsg);
-                } catch (Exception e) {
-                    msg.error = e.getMessage();
-                }
-            } else {
-                msg.message_id = (String) firstMsg.get("apiMessageId");
+    /**
+     * This builds the JSON body of the message call. Up to STREAMING_THRESHOLD numbers
+     * the body is written into this thread's buffer, and sent from there, so the
+     * request must be executed before the next one is built on the same thread.
+     * Above that the body is written to the connection as it is sent.
+     *
+     * @param numbers  The numbers to send to.
+     * @param message  The text of the message.
+     * @param features The extra fields to add, may be null.
+     * @return The body, as UTF-8.
+     * @throws IOException This will not happen, as nothing is written to a stream yet.
+     */
+    static HttpEntity messageEntity(String[] numbers, String message, Map<String, String> features)
+            throws IOException {
+        return messageEntity(numbers, message, features, SmsEncoding.analyze(message));
+    }
+
+    /**
+     * This is messageEntity, for a message that has already been analyzed.
+     */
+    static HttpEntity messageEntity(String[] numbers, String message, Map<String, String> features,
+                                    SmsEncoding encoding) throws IOException {
+        if (numbers.length > STREAMING_THRESHOLD) {
+            return new StreamingMessageEntity(numbers, message, features, encoding);
+        }
+        JsonStreamWriter writer = BODIES.get();
+        writer.reset();
+        writeMessageBody(writer, numbers, message, features, encoding);
+        return new BufferEntity(writer.getBuffer(), writer.size(), JSON_CONTENT_TYPE);
+    }
+
+    /**
+     * This writes the JSON body of the message call, in one pass. The unicode and
+     * maxMessageParts fields that the text needs are added, unless the features
+     * already have them.
+     *
+     * @param writer   The writer to write to, at the start of a document.
+     * @param numbers  The numbers to send to.
+     * @param message  The text of the message.
+     * @param features The extra fields to add, may be null.
+     * @param encoding The analysis of the text.
+     * @throws IOException If the writer's stream could not be written to.
+     */
+    static void writeMessageBody(JsonStreamWriter writer, String[] numbers, String message,
+                                 Map<String, String> features, SmsEncoding encoding) throws IOException {
+        writer.beginObject()
+                .name("to").array(numbers)
+                .name("text").value(message);
+        if (encoding.isUnicode() && (features == null || !features.containsKey("unicode"))) {
+            writer.name("unicode").value("1");
+        }
+        if (encoding.getSegments() > 1 && (features == null || !features.containsKey("maxMessageParts"))) {
+            writer.name("maxMessageParts").value(Integer.toString(encoding.getSegments()));
+        }
+        if (features != null) {
+            for (Map.Entry<String, String> entry : features.entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue());
             }
-            messages.add(msg);
         }
-        return messages.toArray(new Message[0]);
+        writer.endObject();
     }
 
     /**
      * This does a coverage call on the given number.
+     * If a CoverageCache has been set, it is checked first.
      *
      * @param number The number that you wish to do the lookup on.
      * @return -1 for error, Or the minimum cost the message could cost.
      * @throws Exception
      */
     public double getCoverage(String number) throws Exception {
+        CoverageCache cache = this.coverageCache;
+        if (cache == null) {
+            return lookupCoverage(number);
+        }
+        Double cached = cache.get(number);
+        if (cached != null) {
+            return cached;
+        }
+        double charge = lookupCoverage(number);
+        cache.put(number, charge);
+        return charge;
+    }
+
+    /**
+     * This asks the API for the coverage of the given number.
+     *
+     * @param number The number that should be checked.
+     * @return -1 if the number cannot be routed, or the minimum charge of the message.
+     * @throws Exception If the lookup failed.
+     */
+    private double lookupCoverage(String number) throws Exception {
         String response = this.execute("coverage/" + number, GET, null);
         JSONObject obj = new JSONObject(response);
 
@@ -262,6 +637,421 @@ public class ClickatellRest {
         return objData.getDouble("minimumCharge");
     }
 
+    /**
+     * This sets the cache that getCoverage checks before asking the API. The same
+     * cache can be shared by several clients.
+     *
+     * @param coverageCache The cache to use, or null to always ask the API.
+     */
+    public void setCoverageCache(CoverageCache coverageCache) {
+        this.coverageCache = coverageCache;
+    }
+
+    /**
+     * @return The cache that getCoverage checks, or null if there is none.
+     */
+    public CoverageCache getCoverageCache() {
+        return coverageCache;
+    }
+
+    /**
+     * This sets the ledger that every sent message is charged to, see BalanceLedger.
+     *
+     * @param balanceLedger The ledger to charge, or null for none.
+     */
+    public void setBalanceLedger(BalanceLedger balanceLedger) {
+        this.balanceLedger = balanceLedger;
+    }
+
+    /**
+     * @return The ledger that sent messages are charged to, or null if there is none.
+     */
+    public BalanceLedger getBalanceLedger() {
+        return balanceLedger;
+    }
+
+    /**
+     * This sets the rate limiter that every send takes a token per number from.
+     * Share one TokenBucket between all the clients of the same account.
+     * <p/>
+     * A request can have up to 300 numbers. With a non-blocking bucket whose burst
+     * is smaller than that, such a request waits for the bucket to be full, empties
+     * it, and the tokens it is short are paid back before the next send goes
+     * through. Sends are never turned down forever.
+     *
+     * @param rateLimiter The limiter to use, or null to send as fast as possible.
+     */
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return The rate limiter sends take tokens from, or null if there is none.
+     */
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * This sets the normalizer that every list of numbers goes through before it is
+     * sent to, so that badly formatted numbers are fixed or dropped, and repeats are
+     * only sent to once. Single sends are not normalized. The dropped numbers are not
+     * in the results, see RecipientNormalizer.setDropListener to hear about them.
+     *
+     * @param recipientNormalizer The normalizer to use, or null to send to the numbers as given.
+     */
+    public void setRecipientNormalizer(RecipientNormalizer recipientNormalizer) {
+        this.recipientNormalizer = recipientNormalizer;
+    }
+
+    /**
+     * @return The normalizer lists of numbers go through, or null if there is none.
+     */
+    public RecipientNormalizer getRecipientNormalizer() {
+        return recipientNormalizer;
+    }
+
+    /**
+     * This sets the policy that failed requests are retried with. Lookups are retried
+     * on any failure the policy thinks will pass, sends only when the gateway cannot
+     * have received them. By default RetryPolicy.getDefault() is used.
+     *
+     * @param retryPolicy The policy to use, RetryPolicy.NONE to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Use RetryPolicy.NONE to turn retries off");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return The policy that failed requests are retried with.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * This sets the executor that the ...Async calls run on. By default the shared
+     * executor from ClickatellAsync is used.
+     *
+     * @param executor The executor to use, see ClickatellAsync.newBoundedExecutor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * @return The executor that the ...Async calls run on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * This is the asynchronous version of getBalance, it runs on this object's executor.
+     *
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for your balance.
+     */
+    public Future<Double> getBalanceAsync(ClickatellCallback<Double> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return getBalance();
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendMessage, it runs on this object's executor.
+     *
+     * @param number   See sendMessage.
+     * @param message  See sendMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent message.
+     */
+    public Future<Message> sendMessageAsync(final String number, final String message, ClickatellCallback<Message> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message>() {
+            @Override
+            public Message call() throws Exception {
+                return sendMessage(number, message);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendMessage, it runs on this object's executor.
+     *
+     * @param numbers  See sendMessage.
+     * @param message  See sendMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendMessageAsync(final String[] numbers, final String message, ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendMessage(numbers, message);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendBulkMessage, it runs on this object's executor.
+     *
+     * @param numbers     See sendBulkMessage.
+     * @param message     See sendBulkMessage.
+     * @param parallelism See sendBulkMessage.
+     * @param callback    Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendBulkMessageAsync(final String[] numbers, final String message, final int parallelism, ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendBulkMessage(numbers, message, parallelism);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendBulkMessageBatch, it runs on this object's executor.
+     *
+     * @param numbers     See sendBulkMessageBatch.
+     * @param message     See sendBulkMessageBatch.
+     * @param parallelism See sendBulkMessageBatch.
+     * @param callback    Told the result once the request is done, this may be null.
+     * @return A future for the batch of sent messages.
+     */
+    public Future<MessageBatch> sendBulkMessageBatchAsync(final String[] numbers, final String message,
+                                                          final int parallelism,
+                                                          ClickatellCallback<MessageBatch> callback) {
+        return ClickatellAsync.submit(executor, new Callable<MessageBatch>() {
+            @Override
+            public MessageBatch call() throws Exception {
+                return sendBulkMessageBatch(numbers, message, parallelism);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getMessageStatus, it runs on this object's executor.
+     *
+     * @param messageId See getMessageStatus.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the message with its status and charge.
+     */
+    public Future<Message> getMessageStatusAsync(final String messageId, ClickatellCallback<Message> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message>() {
+            @Override
+            public Message call() throws Exception {
+                return getMessageStatus(messageId);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getMessageStatuses, it runs on this object's executor.
+     *
+     * @param messageIds  See getMessageStatuses.
+     * @param concurrency See getMessageStatuses.
+     * @param listener    See getMessageStatuses.
+     * @param callback    Told the number of message IDs looked up once they are all done, this may be null.
+     * @return A future for the number of message IDs looked up.
+     */
+    public Future<Integer> getMessageStatusesAsync(final Iterable<String> messageIds, final int concurrency,
+                                          final BulkQueryListener<Message> listener,
+                                          ClickatellCallback<Integer> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return getMessageStatuses(messageIds, concurrency, listener);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of stopMessage, it runs on this object's executor.
+     *
+     * @param messageId See stopMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the stopped message.
+     */
+    public Future<Message> stopMessageAsync(final String messageId, ClickatellCallback<Message> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message>() {
+            @Override
+            public Message call() throws Exception {
+                return stopMessage(messageId);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of sendAdvancedMessage, it runs on this object's executor.
+     *
+     * @param numbers  See sendAdvancedMessage.
+     * @param message  See sendAdvancedMessage.
+     * @param features See sendAdvancedMessage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the sent messages.
+     */
+    public Future<Message[]> sendAdvancedMessageAsync(final String[] numbers, final String message,
+                                                      final HashMap<String, String> features,
+                                                      ClickatellCallback<Message[]> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Message[]>() {
+            @Override
+            public Message[] call() throws Exception {
+                return sendAdvancedMessage(numbers, message, features);
+            }
+        }, callback);
+    }
+
+    /**
+     * This is the asynchronous version of getCoverage, it runs on this object's executor.
+     *
+     * @param number   See getCoverage.
+     * @param callback Told the result once the request is done, this may be null.
+     * @return A future for the minimum charge, or -1.
+     */
+    public Future<Double> getCoverageAsync(final String number, ClickatellCallback<Double> callback) {
+        return ClickatellAsync.submit(executor, new Callable<Double>() {
+            @Override
+            public Double call() throws Exception {
+                return getCoverage(number);
+            }
+        }, callback);
+    }
+
+    /**
+     * This posts the given message request, and decodes the messages in the response
+     * as they are read off the connection.
+     *
+     * @param numbers  The numbers in the request.
+     * @param message  The text of the message.
+     * @param features The extra fields to add, may be null.
+     * @return The messages in the response, in the order they were returned.
+     * @throws Exception If the request failed, the API returned an error, or the rate
+     *                   limiter did not allow the send.
+     */
+    private MessageBatch sendMessages(final String[] numbers, String message, Map<String, String> features)
+            throws Exception {
+        if (numbers.length == 0) {
+            return MessageBatch.EMPTY;
+        }
+        throttle(numbers.length);
+        SmsEncoding encoding = SmsEncoding.analyze(message);
+        final int parts = encoding.getSegments();
+        HttpEntity body = messageEntity(numbers, message, features, encoding);
+        final MessageBatch.Builder batch = new MessageBatch.Builder(message, numbers.length);
+        HttpPost httppost = new HttpPost(messageUri);
+        httppost.setHeaders(headers);
+        httppost.setEntity(body);
+
+        final int[] errorCode = {-1};
+        String error = retryPolicy.execute(transport, httppost, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(HttpResponse response) throws IOException {
+                return RestMessageDecoder.decode(response.getEntity().getContent(),
+                        new RestMessageDecoder.MessageHandler() {
+                            @Override
+                            public void onMessage(String to, String apiMessageId, int errorCode, String error) {
+                                int i = batch.size();
+                                // Keep the number that was sent, rather than its copy:
+                                if (i < numbers.length && numbers[i].equals(to)) {
+                                    to = numbers[i];
+                                }
+                                batch.add(to, apiMessageId, -1, errorCode, error);
+                                if (apiMessageId != null) {
+                                    chargeSent(apiMessageId, parts);
+                                }
+                            }
+                        }, errorCode);
+            }
+        }, false);
+        if (error != null) {
+            throw new ClickatellException(errorCode[0], error);
+        }
+        return batch.build();
+    }
+
+    /**
+     * This sends queued messages, and marks each chunk in the queue as it comes back,
+     * see OutboundQueue.settle, so the marks are kept even if a later chunk fails.
+     */
+    private MessageBatch sendAndAcknowledge(final OutboundQueue queue, long[] sequences, String[] numbers,
+                                            final String message) throws Exception {
+        final Map<String, List<Long>> byNumber = OutboundQueue.byNumber(sequences, numbers);
+        // The numbers were normalized before they were queued:
+        return BulkDispatcher.dispatch(numbers, MAX_RECIPIENTS_PER_REQUEST, DEFAULT_BULK_PARALLELISM, executor,
+                new BulkDispatcher.ChunkSender() {
+                    @Override
+                    public MessageBatch send(String[] chunk) throws Exception {
+                        MessageBatch results = sendMessages(chunk, message, null);
+                        queue.settle(results, byNumber);
+                        return results;
+                    }
+                });
+    }
+
+    /**
+     * This runs the numbers through the normalizer, if there is one.
+     *
+     * @param numbers The numbers as given.
+     * @return The numbers to send to.
+     */
+    private String[] normalize(String[] numbers) {
+        RecipientNormalizer normalizer = this.recipientNormalizer;
+        return normalizer == null ? numbers : normalizer.normalize(numbers).getNumbers();
+    }
+
+    /**
+     * This takes a token per message from the rate limiter, if there is one.
+     *
+     * @param messages The number of messages about to be sent.
+     * @throws Exception If a non-blocking limiter has no tokens, or the wait was interrupted.
+     */
+    private void throttle(int messages) throws Exception {
+        TokenBucket limiter = this.rateLimiter;
+        if (limiter != null) {
+            limiter.take(messages);
+        }
+    }
+
+    /**
+     * This charges a sent message to the ledger, if there is one.
+     *
+     * @param messageId The ID of the message that was sent.
+     * @param parts     The number of SMS parts it was sent as.
+     */
+    private void chargeSent(String messageId, int parts) {
+        BalanceLedger ledger = this.balanceLedger;
+        if (ledger != null) {
+            ledger.debitEstimated(messageId, parts);
+        }
+    }
+
+    /**
+     * This tells the ledger, if there is one, the real charge of a message.
+     *
+     * @param messageId The ID of the message.
+     * @param charge    The charge as returned by the API.
+     */
+    private void settleCharge(String messageId, String charge) {
+        BalanceLedger ledger = this.balanceLedger;
+        if (ledger != null && charge != null) {
+            try {
+                ledger.settle(messageId, Double.parseDouble(charge));
+            } catch (NumberFormatException e) {
+                // Leave the estimate.
+            }
+        }
+    }
+
     /**
      * This executes a POST query with the given parameters.
      *
@@ -269,46 +1059,27 @@ public class ClickatellRest {
      * @param method    The method that is to be used.
      * @param data      The data you want to send via the POST.
      * @return The content of the request.
+     * @throws IOException If the request failed, after any retries. Only GETs are
+     *                     retried on every transient failure, as they change nothing.
      */
-    private String execute(String targetURL, int method, String data) {
-        HttpClient httpclient = new DefaultHttpClient();
-
-        try {
-            switch (method) {
-                case POST:
-                    HttpPost httppost = new HttpPost(CLICKATELL_REST_BASE_URL + targetURL);
-                    httppost.addHeader("Content-Type", "application/json");
-                    httppost.addHeader("Accept", "application/json");
-                    httppost.addHeader("X-Version", "1");
-                    httppost.addHeader("Authorization", "Bearer " + this.apiKey);
-                    httppost.setEntity(new ByteArrayEntity(data.getBytes()));
-                    HttpResponse responsePOST = httpclient.execute(httppost);
-                    return inputStreamToString(responsePOST.getEntity().getContent());
-                case DELETE:
-                    HttpDelete httpdelete = new HttpDelete(CLICKATELL_REST_BASE_URL + targetURL);
-                    httpdelete.addHeader("Content-Type", "application/json");
-                    httpdelete.addHeader("Accept", "application/json");
-                    httpdelete.addHeader("X-Version", "1");
-                    httpdelete.addHeader("Authorization", "Bearer " + this.apiKey);
-                    HttpResponse responseDELETE = httpclient.execute(httpdelete);
-                    return inputStreamToString(responseDELETE.getEntity().getContent());
-                case GET:
-                    HttpGet httpget = new HttpGet(CLICKATELL_REST_BASE_URL + targetURL);
-                    httpget.addHeader("Content-Type", "application/json");
-                    httpget.addHeader("Accept", "application/json");
-                    httpget.addHeader("X-Version", "1");
-                    httpget.addHeader("Authorization", "Bearer " + this.apiKey);
-                    HttpResponse responseGET = httpclient.execute(httpget);
-                    return inputStreamToString(responseGET.getEntity().getContent());
-                default:
-            }
-
-        } catch (ClientProtocolException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private String execute(String targetURL, int method, String data) throws IOException {
+        switch (method) {
+            case POST:
+                HttpPost httppost = new HttpPost(baseUrl + targetURL);
+                httppost.setHeaders(headers);
+                httppost.setEntity(new ByteArrayEntity(data.getBytes(UTF_8)));
+                return retryPolicy.execute(transport, httppost, stringResponseHandler, false);
+            case DELETE:
+                HttpDelete httpdelete = new HttpDelete(baseUrl + targetURL);
+                httpdelete.setHeaders(headers);
+                return retryPolicy.execute(transport, httpdelete, stringResponseHandler, false);
+            case GET:
+                HttpGet httpget = new HttpGet(baseUrl + targetURL);
+                httpget.setHeaders(headers);
+                return retryPolicy.execute(transport, httpget, stringResponseHandler, true);
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
         }
-        return "";
     }
 
     /**
@@ -318,12 +1089,12 @@ public class ClickatellRest {
      * @return The string of the entire input stream.
      * @throws IOException
      */
-    private String inputStreamToString(InputStream is) throws IOException {
+    static String inputStreamToString(InputStream is) throws IOException {
         String line = "";
         StringBuilder total = new StringBuilder();
 
         // Wrap a BufferedReader around the InputStream
-        BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+        BufferedReader rd = new BufferedReader(new InputStreamReader(is, UTF_8));
 
         // Read response until the end
         while ((line = rd.readLine()) != null) {
@@ -332,7 +1103,6 @@ public class ClickatellRest {
         }
 
         // Return full string
-        System.out.println(total.toString().trim());
         return total.toString().trim();
     }
 
@@ -349,19 +1119,71 @@ public class ClickatellRest {
         if (obj.has("error")) {
             JSONObject objError = obj.getJSONObject("error");
             if (objError != null) {
-                throw new Exception(objError.getString("description"));
+                throw new ClickatellException(MessageBatch.parseCode(objError.optString("code")),
+                        objError.getString("description"));
             }
         }
     }
 
+    /**
+     * This writes the body of a message request with a great many numbers straight
+     * to the connection, with chunked transfer, so it is never held in memory. It
+     * is written again each time the request is retried.
+     */
+    private static final class StreamingMessageEntity extends AbstractHttpEntity {
+        private final String[] numbers;
+        private final String message;
+        private final Map<String, String> features;
+        private final SmsEncoding encoding;
+
+        StreamingMessageEntity(String[] numbers, String message, Map<String, String> features,
+                               SmsEncoding encoding) {
+            this.numbers = numbers;
+            this.message = message;
+            this.features = features;
+            this.encoding = encoding;
+            setContentType(JSON_CONTENT_TYPE);
+            setChunked(true);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            JsonStreamWriter writer = new JsonStreamWriter(out);
+            writeMessageBody(writer, numbers, message, features, encoding);
+            writer.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
     /**
      * This is the Message class that gets used as return values for some of the
-     * functions.
+     * functions. For results of many messages see MessageBatch.
      *
      * @author Dominic Schaff <dominic.schaff@gmail.com>
      *
      */
-    public class Message {
+    public static class Message {
         public String number = null, message_id = null, content = null,
                 charge = null, status = null, error = null, statusString = null;
 
@@ -0,0 +1,481 @@
+package com.schaff.clickatellsample;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the transport that both ClickatellHttp and ClickatellRest send their
+ * requests through. It holds one HttpClient with a bounded, thread safe connection
+ * pool, so connections (and their TLS sessions) are kept alive and reused between
+ * calls instead of being set up again for every request.
+ * <p/>
+ * One transport can be shared by as many client objects and threads as you like.
+ * Call shutdown() once you are done with it to close the pooled connections.
+ * <p/>
+ * The transport never retries a request by itself, the clients do that with their
+ * RetryPolicy, which knows whether a request is safe to send twice.
+ * <p/>
+ * Every request has a connect and a socket timeout, and goes through the circuit
+ * breaker of its endpoint. An endpoint is the scheme, host and first part of the
+ * path, so the HTTP, utils and REST APIs each have their own breaker.
+ * <p/>
+ * Give it a MetricsRegistry to have the latency, outcome and size of every
+ * request recorded.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class ClickatellTransport {
+
+    /**
+     * The default maximum number of connections held by the pool.
+     */
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+
+    /**
+     * The default maximum number of connections to one host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    /**
+     * The default longest wait for a connection to be made, or taken from the pool.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The default longest wait for data from the server.
+     */
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * The transport used by clients that were not given one.
+     */
+    private static ClickatellTransport defaultTransport;
+
+    private final ClientConnectionManager connectionManager;
+
+    private final DefaultHttpClient httpClient;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * The circuit breaker of each endpoint, made when the endpoint is first used.
+     */
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private volatile boolean circuitBreakersEnabled = true;
+
+    private volatile MetricsRegistry metricsRegistry;
+
+    /**
+     * The settings new circuit breakers are made with, guarded by this.
+     */
+    private int breakerWindowSize = 20, breakerMinimumCalls = 10;
+
+    private double breakerFailureRate = 0.5;
+
+    private long breakerOpenMillis = 30000;
+
+    /**
+     * Create a transport with the default pool limits.
+     */
+    public ClickatellTransport() {
+        this(DEFAULT_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Create a transport with the given pool limits, and the default timeouts.
+     *
+     * @param maxTotalConnections    The most connections that will be open at once.
+     * @param maxConnectionsPerRoute The most connections that will be open to one host.
+     */
+    public ClickatellTransport(int maxTotalConnections, int maxConnectionsPerRoute) {
+        this(maxTotalConnections, maxConnectionsPerRoute, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_SOCKET_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a transport with the given pool limits and timeouts.
+     *
+     * @param maxTotalConnections    The most connections that will be open at once.
+     * @param maxConnectionsPerRoute The most connections that will be open to one host.
+     * @param connectTimeoutMillis   The longest wait for a connection to be made, or taken from the pool.
+     * @param socketTimeoutMillis    The longest wait for data from the server.
+     */
+    public ClickatellTransport(int maxTotalConnections, int maxConnectionsPerRoute, int connectTimeoutMillis,
+                               int socketTimeoutMillis) {
+        if (maxTotalConnections < 1 || maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("Connection limits must be at least 1");
+        }
+        if (connectTimeoutMillis < 1 || socketTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Timeouts must be at least 1ms");
+        }
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        // Our own params replace DefaultHttpClient's defaults, which turn Nagle off:
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+        ConnManagerParams.setTimeout(params, connectTimeoutMillis);
+        ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        connectionManager = new ThreadSafeClientConnManager(params, registry);
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        // The built in handler retries POSTs that may have been handled, which could send a message twice:
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+    }
+
+    /**
+     * This returns the transport that is shared by all clients that were not given
+     * their own. If the shared transport was shut down a new one is created.
+     *
+     * @return The shared transport.
+     */
+    public static synchronized ClickatellTransport getDefault() {
+        if (defaultTransport == null || defaultTransport.isShutdown()) {
+            defaultTransport = new ClickatellTransport();
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * This executes the request on a pooled connection. The response entity is always
+     * consumed before this returns, so the connection goes back to the pool.
+     *
+     * @param request The request to execute.
+     * @param handler The handler that turns the response into a result.
+     * @return Whatever the handler returned.
+     * @throws CircuitBreakerOpenException If the endpoint's breaker is open, nothing was sent.
+     * @throws HttpStatusException         If the server answered with 429 or a 5xx status.
+     * @throws IOException                 If the request failed, or the transport was shut down.
+     */
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+        if (shutdown) {
+            throw new IOException("Transport has been shut down");
+        }
+        MetricsRegistry metrics = this.metricsRegistry;
+        if (metrics == null) {
+            return guard(request, handler, null);
+        }
+        long start = System.nanoTime();
+        long[] received = new long[1];
+        MetricsRegistry.Outcome outcome = MetricsRegistry.Outcome.ERROR;
+        try {
+            T result = guard(request, handler, received);
+            outcome = MetricsRegistry.Outcome.SUCCESS;
+            return result;
+        } catch (CircuitBreakerOpenException e) {
+            outcome = MetricsRegistry.Outcome.REJECTED;
+            throw e;
+        } catch (InterruptedIOException e) {
+            // Socket and connect timeouts are both interrupted IO:
+            outcome = MetricsRegistry.Outcome.TIMEOUT;
+            throw e;
+        } finally {
+            metrics.record(metricNameOf(request.getURI()), outcome, System.nanoTime() - start,
+                    contentLength(request), received[0]);
+        }
+    }
+
+    /**
+     * This sends the request through its endpoint's circuit breaker, if they are on.
+     */
+    private <T> T guard(HttpUriRequest request, ResponseHandler<? extends T> handler, long[] received)
+            throws IOException {
+        if (!circuitBreakersEnabled) {
+            return send(request, handler, received);
+        }
+        CircuitBreaker breaker = getCircuitBreaker(endpointOf(request.getURI()));
+        breaker.acquirePermission();
+        boolean failed = true;
+        try {
+            T result = send(request, handler, received);
+            failed = false;
+            return result;
+        } catch (HttpStatusException e) {
+            // Too many requests means the endpoint is up, just busy:
+            failed = e.getStatusCode() != 429;
+            throw e;
+        } catch (RuntimeException e) {
+            // The response could not be handled, but there was one:
+            failed = false;
+            throw e;
+        } finally {
+            if (failed) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+        }
+    }
+
+    /**
+     * This returns the circuit breaker of an endpoint, making it if need be.
+     *
+     * @param endpoint The endpoint, see endpointOf.
+     * @return The breaker.
+     */
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        return breaker != null ? breaker : newCircuitBreaker(endpoint);
+    }
+
+    private synchronized CircuitBreaker newCircuitBreaker(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpoint, breakerWindowSize, breakerMinimumCalls, breakerFailureRate,
+                    breakerOpenMillis, TimeUnit.MILLISECONDS);
+            breakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * This sets how the circuit breakers behave, see CircuitBreaker. The breakers are
+     * made again, so any that are open are closed. By default the last 20 requests are
+     * remembered, at least 10 are needed, half of them must fail, and the breaker
+     * stays open for 30 seconds.
+     *
+     * @param windowSize           The number of recent requests to remember.
+     * @param minimumCalls         The fewest remembered requests before a breaker can open.
+     * @param failureRateThreshold The share of failed requests that opens a breaker, between 0 and 1.
+     * @param openTime             How long a breaker stays open before a test request.
+     * @param unit                 The unit of the open time.
+     */
+    public synchronized void setCircuitBreakerSettings(int windowSize, int minimumCalls, double failureRateThreshold,
+                                                       long openTime, TimeUnit unit) {
+        // Make one first, so bad settings are thrown out before anything changes:
+        new CircuitBreaker("", windowSize, minimumCalls, failureRateThreshold, openTime, unit);
+        breakerWindowSize = windowSize;
+        breakerMinimumCalls = minimumCalls;
+        breakerFailureRate = failureRateThreshold;
+        breakerOpenMillis = unit.toMillis(openTime);
+        breakers.clear();
+    }
+
+    /**
+     * @param enabled Whether requests go through the circuit breakers, they do by default.
+     */
+    public void setCircuitBreakersEnabled(boolean enabled) {
+        this.circuitBreakersEnabled = enabled;
+    }
+
+    /**
+     * This sets the registry that every request is recorded in.
+     *
+     * @param metricsRegistry The registry, see InMemoryMetricsRegistry, or null to record nothing.
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * @return The registry that every request is recorded in, or null if there is none.
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * This names the endpoint a URI belongs to: its scheme, host, port and the first
+     * part of its path. For example https://api.clickatell.com/http/sendmsg belongs to
+     * https://api.clickatell.com/http/.
+     *
+     * @param uri The URI of a request.
+     * @return The name of its endpoint.
+     */
+    static String endpointOf(URI uri) {
+        String path = uri.getRawPath();
+        int end = path == null ? -1 : path.indexOf('/', 1);
+        String first = end < 0 ? "/" : path.substring(0, end + 1);
+        return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort()) + first;
+    }
+
+    /**
+     * This names the endpoint a URI is recorded under in the metrics: its path, up to
+     * the first part with a digit in it, so message IDs and numbers do not each get
+     * their own name. For example /rest/message/0d1d7dda17 is recorded as /rest/message.
+     *
+     * @param uri The URI of a request.
+     * @return The name to record it under.
+     */
+    static String metricNameOf(URI uri) {
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            return "/";
+        }
+        int end = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Cut at the slash before this part:
+                end = Math.max(1, path.lastIndexOf('/', i));
+                break;
+            }
+        }
+        if (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+    private static long contentLength(HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                return Math.max(0, entity.getContentLength());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * This executes the request, and turns 429 and 5xx responses into exceptions.
+     *
+     * @param received If not null, the number of response bytes read is added to its first element.
+     */
+    private <T> T send(HttpUriRequest request, final ResponseHandler<? extends T> handler, final long[] received)
+            throws IOException {
+        return httpClient.execute(request, new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                if (received != null && response.getEntity() != null) {
+                    response.setEntity(new CountingEntity(response.getEntity(), received));
+                }
+                int status = response.getStatusLine().getStatusCode();
+                if (status == 429 || status >= 500) {
+                    if (response.getEntity() != null) {
+                        response.getEntity().consumeContent();
+                    }
+                    throw new HttpStatusException(status, retryAfterMillis(response));
+                }
+                return handler.handleResponse(response);
+            }
+        });
+    }
+
+    /**
+     * @return The wait asked for by the Retry-After header in seconds, or -1 if there is none.
+     */
+    private static long retryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header != null) {
+            try {
+                return Long.parseLong(header.getValue().trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // An HTTP date, which we do not bother with.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This counts the bytes read from a response body.
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final long[] received;
+
+        CountingEntity(HttpEntity entity, long[] received) {
+            super(entity);
+            this.received = received;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(wrappedEntity.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        received[0]++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        received[0] += n;
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * This closes connections that have not been used for the given time.
+     *
+     * @param idleTime The time a connection may be idle for.
+     * @param unit     The unit of the idle time.
+     */
+    public void closeIdleConnections(long idleTime, TimeUnit unit) {
+        connectionManager.closeIdleConnections(idleTime, unit);
+    }
+
+    /**
+     * This closes all the pooled connections. Requests made after this will fail.
+     */
+    public void shutdown() {
+        shutdown = true;
+        connectionManager.shutdown();
+    }
+
+    /**
+     * @return Whether shutdown() has been called.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
@@ -0,0 +1,150 @@
+package com.schaff.clickatellsample;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This remembers the results of coverage lookups, so that checking a number that
+ * was looked up recently does not need another request. Give one to
+ * ClickatellHttp.setCoverageCache or ClickatellRest.setCoverageCache to use it.
+ * <p/>
+ * Entries expire after a time to live, and once the cache is full the least
+ * recently used number is dropped. Numbers that cannot be routed (a result of -1)
+ * are cached too, with their own time to live.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class CoverageCache {
+
+    private final long ttlNanos, negativeTtlNanos;
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    private final LinkedHashMap<String, Result> entries;
+
+    /**
+     * Create a cache that uses the same time to live for all results.
+     *
+     * @param maxEntries The most numbers to remember.
+     * @param ttl        How long a result is used for.
+     * @param unit       The unit of the time to live.
+     */
+    public CoverageCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, ttl, unit);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxEntries  The most numbers to remember.
+     * @param ttl         How long a charge is used for.
+     * @param negativeTtl How long a "not routable" result is used for, 0 to not cache them.
+     * @param unit        The unit of the times to live.
+     */
+    public CoverageCache(final int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one entry");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        // Access order, so the eldest entry is the least recently used:
+        this.entries = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * This looks up a number.
+     *
+     * @param number The number to look up.
+     * @return The cached result (-1 for not routable), or null if there is none.
+     */
+    public Double get(String number) {
+        synchronized (entries) {
+            Result entry = entries.get(number);
+            if (entry != null && entry.expires - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return entry.charge;
+            }
+            if (entry != null) {
+                entries.remove(number);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * This stores the result of a lookup.
+     *
+     * @param number The number that was looked up.
+     * @param charge The result of the lookup, -1 for not routable.
+     */
+    public void put(String number, double charge) {
+        long ttl = charge < 0 ? negativeTtlNanos : ttlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(number, new Result(charge, System.nanoTime() + ttl));
+        }
+    }
+
+    /**
+     * This forgets the result for a number.
+     *
+     * @param number The number to forget.
+     */
+    public void invalidate(String number) {
+        synchronized (entries) {
+            entries.remove(number);
+        }
+    }
+
+    /**
+     * This forgets all the results.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return The number of results held, including any that expired but were not looked up since.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The number of lookups that were answered by the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups that the cache could not answer.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static final class Result {
+        final double charge;
+        final long expires;
+
+        Result(double charge, long expires) {
+            this.charge = charge;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is one delivery callback from Clickatell: the status a message has reached,
+ * as posted to the callback URL of the account. See DeliveryReceiptReceiver.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public final class DeliveryReceipt {
+
+    private final String apiMessageId, clientMessageId, to, from;
+
+    private final int status;
+
+    private final double charge;
+
+    private final long timestamp;
+
+    /**
+     * @param apiMessageId    The ID of the message, as returned when it was sent.
+     * @param clientMessageId The client's own ID of the message, or null.
+     * @param to              The number the message was sent to, or null.
+     * @param from            The number the message was sent from, or null.
+     * @param status          The status code, such as 4 for "004, Received by recipient", or -1.
+     * @param charge          The charge of the message, or -1 if it was not given.
+     * @param timestamp       When the message reached the status, in seconds since the epoch, or 0.
+     */
+    public DeliveryReceipt(String apiMessageId, String clientMessageId, String to, String from, int status,
+                           double charge, long timestamp) {
+        this.apiMessageId = apiMessageId;
+        this.clientMessageId = clientMessageId;
+        this.to = to;
+        this.from = from;
+        this.status = status;
+        this.charge = charge;
+        this.timestamp = timestamp;
+    }
+
+    public String getApiMessageId() {
+        return apiMessageId;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return The status code, such as 4 for "004, Received by recipient", or -1.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The charge of the message, or -1 if it was not given.
+     */
+    public double getCharge() {
+        return charge;
+    }
+
+    /**
+     * @return When the message reached the status, in seconds since the epoch, or 0.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Whether the status is final, see isFinal(int).
+     */
+    public boolean isFinal() {
+        return isFinal(status);
+    }
+
+    /**
+     * A message reaches one final status, such as "004, Received by recipient" or
+     * "007, Error delivering message", after any number of others such as "003,
+     * Delivered to gateway". Receipts can arrive out of order, so a late one for an
+     * earlier status must not undo a final one.
+     *
+     * @param status The status code.
+     * @return Whether the status is final.
+     */
+    public static boolean isFinal(int status) {
+        switch (status) {
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+            case 9:
+            case 10:
+            case 12:
+            case 14:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param status  The status that came in, or -1 if there is none.
+     * @param current The status that is kept now, or -1.
+     * @return Whether the status that came in should be kept instead, which it is
+     * unless it is missing, or would undo a final status.
+     */
+    static boolean replaces(int status, int current) {
+        return status >= 0 && (isFinal(status) || !isFinal(current));
+    }
+
+    @Override
+    public String toString() {
+        return apiMessageId + ": " + MessageBatch.formatCode(status);
+    }
+}
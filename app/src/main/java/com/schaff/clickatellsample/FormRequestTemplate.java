@@ -0,0 +1,210 @@
+package com.schaff.clickatellsample;
+
+import org.apache.http.client.methods.HttpPost;
+
+import java.net.URI;
+
+/**
+ * This is a form POST to one endpoint of the HTTP API, with the parameters that
+ * never change (the authentication) URL encoded once, when the template is made.
+ * Each request then only encodes its own parameters, straight into a buffer that
+ * is reused by the thread.
+ * <p/>
+ * A request must be executed before the next one is begun on the same thread, as
+ * its body is read out of that thread's buffer.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class FormRequestTemplate {
+
+    private static final String CONTENT_TYPE = "application/x-www-form-urlencoded; charset=UTF-8";
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    /**
+     * Every thread encodes its requests into its own buffer.
+     */
+    private static final ThreadLocal<Body> BODIES = new ThreadLocal<Body>() {
+        @Override
+        protected Body initialValue() {
+            return new Body();
+        }
+    };
+
+    private final URI uri;
+
+    private final byte[] prefix;
+
+    /**
+     * Create a template for the given URL.
+     *
+     * @param url          The URL of the endpoint.
+     * @param staticParams The names and values of the parameters sent with every
+     *                     request, as name, value, name, value...
+     */
+    FormRequestTemplate(String url, String... staticParams) {
+        this.uri = URI.create(url);
+        Body body = new Body();
+        body.reset(null);
+        for (int i = 0; i + 1 < staticParams.length; i += 2) {
+            body.add(staticParams[i], staticParams[i + 1]);
+        }
+        this.prefix = new byte[body.length];
+        System.arraycopy(body.bytes, 0, prefix, 0, body.length);
+    }
+
+    /**
+     * This starts a new request on this thread's buffer, with the static parameters
+     * already in it.
+     *
+     * @return The body to add the request's own parameters to.
+     */
+    Body begin() {
+        Body body = BODIES.get();
+        body.reset(this);
+        return body;
+    }
+
+    /**
+     * This is the encoded body of one request.
+     */
+    static final class Body {
+        private byte[] bytes = new byte[512];
+        private int length;
+        private FormRequestTemplate template;
+
+        private void reset(FormRequestTemplate template) {
+            this.template = template;
+            length = 0;
+            if (template != null) {
+                ensure(template.prefix.length);
+                System.arraycopy(template.prefix, 0, bytes, 0, template.prefix.length);
+                length = template.prefix.length;
+            }
+        }
+
+        /**
+         * This adds a parameter.
+         *
+         * @return This body, so calls can be chained.
+         */
+        Body add(String name, CharSequence value) {
+            separator();
+            encode(name);
+            write('=');
+            encode(value);
+            return this;
+        }
+
+        /**
+         * This adds a parameter whose value is the given values joined with commas.
+         *
+         * @return This body, so calls can be chained.
+         */
+        Body addList(String name, String[] values) {
+            separator();
+            encode(name);
+            write('=');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    // An encoded comma:
+                    write('%');
+                    write('2');
+                    write('C');
+                }
+                encode(values[i]);
+            }
+            return this;
+        }
+
+        /**
+         * This adds a parameter whose value is sent as UCS-2, each UTF-16 unit of it
+         * written as four hex digits, which is how the API wants unicode text.
+         *
+         * @return This body, so calls can be chained.
+         */
+        Body addUnicode(String name, CharSequence value) {
+            separator();
+            encode(name);
+            write('=');
+            int n = value.length();
+            ensure(n * 4);
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                write(HEX[(c >> 12) & 0xF]);
+                write(HEX[(c >> 8) & 0xF]);
+                write(HEX[(c >> 4) & 0xF]);
+                write(HEX[c & 0xF]);
+            }
+            return this;
+        }
+
+        /**
+         * @return A POST of this body to the template's endpoint.
+         */
+        HttpPost toRequest() {
+            HttpPost post = new HttpPost(template.uri);
+            post.setEntity(new BufferEntity(bytes, length, CONTENT_TYPE));
+            return post;
+        }
+
+        private void separator() {
+            if (length > 0) {
+                write('&');
+            }
+        }
+
+        private void encode(CharSequence s) {
+            if (s == null) {
+                return;
+            }
+            int n = s.length();
+            ensure(n * 3);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '-' || c == '*' || c == '_') {
+                    write(c);
+                } else if (c == ' ') {
+                    write('+');
+                } else if (c < 0x80) {
+                    escape(c);
+                } else if (c < 0x800) {
+                    escape(0xC0 | (c >> 6));
+                    escape(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    escape(0xF0 | (cp >> 18));
+                    escape(0x80 | ((cp >> 12) & 0x3F));
+                    escape(0x80 | ((cp >> 6) & 0x3F));
+                    escape(0x80 | (cp & 0x3F));
+                } else {
+                    escape(0xE0 | (c >> 12));
+                    escape(0x80 | ((c >> 6) & 0x3F));
+                    escape(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void escape(int b) {
+            write('%');
+            write(HEX[(b >> 4) & 0xF]);
+            write(HEX[b & 0xF]);
+        }
+
+        private void write(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                byte[] bigger = new byte[Math.max(bytes.length * 2, length + extra)];
+                System.arraycopy(bytes, 0, bigger, 0, length);
+                bytes = bigger;
+            }
+        }
+    }
+}
@@ -97,30 +97,31 @@ public class HttpActivity extends ActionBarActivity {
      * Created a toast message on success, or error.
      */
     private void getAuth() {
-        new Thread(new Runnable() {
+        httpApi.testAuthAsync(new ClickatellCallback<Boolean>() {
             @Override
-            public void run() {
-                try {
-                    if (httpApi.testAuth()) {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Toast.makeText(getApplicationContext(), "Authentication Succeeded", Toast.LENGTH_LONG).show();
-                            }
-                        });
-                    } else {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Toast.makeText(getApplicationContext(), "Authentication Failed", Toast.LENGTH_LONG).show();
-                            }
-                        });
-                    }
-                } catch (Exception e) {
-                    ShowException(e);
+            public void onSuccess(final Boolean accepted) {
+                if (accepted) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(getApplicationContext(), "Authentication Succeeded", Toast.LENGTH_LONG).show();
+                        }
+                    });
+                } else {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(getApplicationContext(), "Authentication Failed", Toast.LENGTH_LONG).show();
+                        }
+                    });
                 }
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
@@ -128,22 +129,22 @@ public class HttpActivity extends ActionBarActivity {
      * Shows the balance as a toast.
      */
     private void getBalance() {
-        new Thread(new Runnable() {
+        httpApi.getBalanceAsync(new ClickatellCallback<Double>() {
             @Override
-            public void run() {
-                try {
-                    final double balance = httpApi.getBalance();
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(getApplicationContext(), "Balance is : " + balance, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final Double balance) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(), "Balance is : " + balance, Toast.LENGTH_LONG).show();
+                    }
+                });
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
@@ -180,25 +181,25 @@ public class HttpActivity extends ActionBarActivity {
      * @param content The message the will be sent.
      */
     private void SendSingleMessage(final String number, final String content) {
-        new Thread(new Runnable() {
+        httpApi.sendMessageAsync(number, content, new ClickatellCallback<ClickatellHttp.Message>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellHttp.Message result = httpApi.sendMessage(number, content);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.http_send_single_message_reply);
-                            et.setText(result.toString());
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), result.toString(), Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final ClickatellHttp.Message result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.http_send_single_message_reply);
+                        et.setText(result.toString());
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), result.toString(), Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -234,28 +235,28 @@ public class HttpActivity extends ActionBarActivity {
      * @param content The message the will be sent.
      */
     private void SendMultipleMessages(final String numbers, final String content) {
-        new Thread(new Runnable() {
+        httpApi.sendMessageAsync(numbers.split(" "), content, new ClickatellCallback<ClickatellHttp.Message[]>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellHttp.Message[] result = httpApi.sendMessage(numbers.split(" "), content);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            String data = result[0].toString();
-                            for (int i = 1; i < result.length; i++) {
-                                data += "\n" + result[i].toString();
-                            }
-                            EditText et = (EditText) findViewById(R.id.http_send_multiple_messages_reply);
-                            et.setText(data);
-                            et.setVisibility(View.VISIBLE);
+            public void onSuccess(final ClickatellHttp.Message[] result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String data = result[0].toString();
+                        for (int i = 1; i < result.length; i++) {
+                            data += "\n" + result[i].toString();
                         }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+                        EditText et = (EditText) findViewById(R.id.http_send_multiple_messages_reply);
+                        et.setText(data);
+                        et.setVisibility(View.VISIBLE);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -288,25 +289,25 @@ public class HttpActivity extends ActionBarActivity {
      * @param messageId The message ID to do the lookup on.
      */
     private void GetMessageStatus(final String messageId) {
-        new Thread(new Runnable() {
+        httpApi.getMessageStatusAsync(messageId, new ClickatellCallback<Integer>() {
             @Override
-            public void run() {
-                try {
-                    final int result = httpApi.getMessageStatus(messageId);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.http_get_message_status_reply);
-                            et.setText("" + result);
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final Integer result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.http_get_message_status_reply);
+                        et.setText("" + result);
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -339,25 +340,25 @@ public class HttpActivity extends ActionBarActivity {
      * @param messageId The message ID to do the lookup on.
      */
     private void GetMessageCharge(final String messageId) {
-        new Thread(new Runnable() {
+        httpApi.getMessageChargeAsync(messageId, new ClickatellCallback<ClickatellHttp.Message>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellHttp.Message result = httpApi.getMessageCharge(messageId);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.http_get_message_charge_reply);
-                            et.setText(String.format("%s\nCharge: %s, Status: %s", result.toString(), result.charge, result.status));
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final ClickatellHttp.Message result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.http_get_message_charge_reply);
+                        et.setText(String.format("%s\nCharge: %s, Status: %s", result.toString(), result.charge, result.status));
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -390,25 +391,25 @@ public class HttpActivity extends ActionBarActivity {
      * @param messageId The message ID to try to stop.
      */
     private void StopMessage(final String messageId) {
-        new Thread(new Runnable() {
+        httpApi.stopMessageAsync(messageId, new ClickatellCallback<Integer>() {
             @Override
-            public void run() {
-                try {
-                    final int result = httpApi.stopMessage(messageId);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.http_stop_message_reply);
-                            et.setText("Status: " + result);
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), "Status: " + result, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final Integer result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.http_stop_message_reply);
+                        et.setText("Status: " + result);
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), "Status: " + result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -441,30 +442,30 @@ public class HttpActivity extends ActionBarActivity {
      * @param number The number to do the lookup on.
      */
     private void GetCoverage(final String number) {
-        new Thread(new Runnable() {
+        httpApi.getCoverageAsync(number, new ClickatellCallback<Double>() {
             @Override
-            public void run() {
-                try {
-                    final double result = httpApi.getCoverage(number);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.http_get_coverage_reply);
-                            if (result < 0) {
-                                et.setText("Message Cannot be Routed");
-                                Toast.makeText(getApplicationContext(), "Message Cannot be Routed", Toast.LENGTH_LONG).show();
-                            } else {
-                                et.setText("Message can be routed, and it could cost as little as: " + result + " credits");
-                                Toast.makeText(getApplicationContext(), "Message can be routed, and it could cost as little as: " + result + " credits", Toast.LENGTH_LONG).show();
-                            }
-                            et.setVisibility(View.VISIBLE);
+            public void onSuccess(final Double result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.http_get_coverage_reply);
+                        if (result < 0) {
+                            et.setText("Message Cannot be Routed");
+                            Toast.makeText(getApplicationContext(), "Message Cannot be Routed", Toast.LENGTH_LONG).show();
+                        } else {
+                            et.setText("Message can be routed, and it could cost as little as: " + result + " credits");
+                            Toast.makeText(getApplicationContext(), "Message can be routed, and it could cost as little as: " + result + " credits", Toast.LENGTH_LONG).show();
                         }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+                        et.setVisibility(View.VISIBLE);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -0,0 +1,286 @@
+package com.schaff.clickatellsample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * This decodes the plain text replies of the HTTP API. The response bytes are
+ * scanned once, and each line is turned into a Reply, without any regular
+ * expressions or split arrays.
+ * <p/>
+ * A line is made up of "Key: value" pairs, for example:
+ * <pre>
+ * ID: 0d1d7dda17d5a24edf1555dc0b679d0e To: 27999112345
+ * ERR: 114, Cannot route message To: 27999112345
+ * apiMsgId: 996411ad91fa211e7d17bc873aa4a41d charge: 0.3 status: 004
+ * </pre>
+ * A value runs until the next known key, or the end of the line.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class HttpReplyDecoder {
+
+    /**
+     * The error code of the API for failed authentication.
+     */
+    static final int ERROR_AUTHENTICATION_FAILED = 1;
+
+    /**
+     * This is one decoded line of a reply. Fields that were not in the line are
+     * null, or -1 for the numeric ones. A line without any known key is kept in text.
+     */
+    static final class Reply {
+        String id, to, error, charge, credit, ok, text;
+        int errorCode, status;
+
+        Reply() {
+            clear();
+        }
+
+        void clear() {
+            id = to = error = charge = credit = ok = text = null;
+            errorCode = status = -1;
+        }
+
+        boolean isError() {
+            return error != null;
+        }
+
+        Reply copy() {
+            Reply r = new Reply();
+            r.id = id;
+            r.to = to;
+            r.error = error;
+            r.charge = charge;
+            r.credit = credit;
+            r.ok = ok;
+            r.text = text;
+            r.errorCode = errorCode;
+            r.status = status;
+            return r;
+        }
+    }
+
+    /**
+     * This gets told about every line of a reply.
+     */
+    interface ReplyHandler {
+        /**
+         * @param reply The decoded line. The same object is reused for every line, so
+         *              copy what you need out of it.
+         */
+        void onReply(Reply reply);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int KEY_ID = 0, KEY_ERR = 1, KEY_TO = 2, KEY_STATUS = 3, KEY_CHARGE = 4,
+            KEY_API_MSG_ID = 5, KEY_CREDIT = 6, KEY_OK = 7;
+
+    /**
+     * The known keys, in lower case, indexed by the KEY_ constants.
+     */
+    private static final byte[][] KEYS = {
+            ascii("id"), ascii("err"), ascii("to"), ascii("status"), ascii("charge"),
+            ascii("apimsgid"), ascii("credit"), ascii("ok")
+    };
+
+    private HttpReplyDecoder() {
+    }
+
+    /**
+     * This decodes every line of the reply.
+     *
+     * @param in      The response body.
+     * @param handler The handler to tell about each line.
+     * @return The number of lines decoded.
+     * @throws IOException If the stream could not be read.
+     */
+    static int decode(InputStream in, ReplyHandler handler) throws IOException {
+        return new Scanner(in).scan(handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * This decodes only the first line of the reply.
+     *
+     * @param in The response body.
+     * @return The first line, or null if the reply was empty.
+     * @throws IOException If the stream could not be read.
+     */
+    static Reply decodeFirst(InputStream in) throws IOException {
+        final Reply[] first = new Reply[1];
+        new Scanner(in).scan(new ReplyHandler() {
+            @Override
+            public void onReply(Reply reply) {
+                first[0] = reply.copy();
+            }
+        }, 1);
+        return first[0];
+    }
+
+    /**
+     * This reads the stream a buffer at a time, and gathers up the lines.
+     */
+    private static class Scanner {
+        private final InputStream in;
+        private final byte[] buffer = new byte[4096];
+        private byte[] line = new byte[256];
+        private int length = 0;
+        private final Reply reply = new Reply();
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        int scan(ReplyHandler handler, int maxLines) throws IOException {
+            int lines = 0, read;
+            while (lines < maxLines && (read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read && lines < maxLines; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (decodeLine()) {
+                            handler.onReply(reply);
+                            lines++;
+                        }
+                    } else if (b != '\r') {
+                        append(b);
+                    }
+                }
+            }
+            if (lines < maxLines && decodeLine()) {
+                handler.onReply(reply);
+                lines++;
+            }
+            return lines;
+        }
+
+        private void append(byte b) {
+            if (length == line.length) {
+                byte[] bigger = new byte[length * 2];
+                System.arraycopy(line, 0, bigger, 0, length);
+                line = bigger;
+            }
+            line[length++] = b;
+        }
+
+        /**
+         * @return Whether the line had anything in it.
+         */
+        private boolean decodeLine() {
+            int end = length;
+            length = 0;
+            reply.clear();
+            int key = -1, valueStart = 0;
+            boolean any = false;
+            for (int i = 0; i < end; i++) {
+                if (i > 0 && line[i - 1] != ' ') {
+                    continue;
+                }
+                int found = matchKey(line, i, end);
+                if (found < 0) {
+                    continue;
+                }
+                if (key >= 0) {
+                    setField(key, valueStart, i);
+                }
+                key = found;
+                valueStart = i + KEYS[found].length + 1;
+                i = valueStart - 1;
+                any = true;
+            }
+            if (key >= 0) {
+                setField(key, valueStart, end);
+            } else if (end > 0) {
+                // A line without a known key, keep it so that it is not lost:
+                reply.text = trimmed(0, end);
+                any = reply.text != null;
+            }
+            return any;
+        }
+
+        private void setField(int key, int from, int to) {
+            switch (key) {
+                case KEY_ID:
+                case KEY_API_MSG_ID:
+                    reply.id = trimmed(from, to);
+                    break;
+                case KEY_ERR:
+                    String error = trimmed(from, to);
+                    reply.error = error == null ? "" : error;
+                    reply.errorCode = parseInt(from, to);
+                    break;
+                case KEY_TO:
+                    reply.to = trimmed(from, to);
+                    break;
+                case KEY_STATUS:
+                    reply.status = parseInt(from, to);
+                    break;
+                case KEY_CHARGE:
+                    reply.charge = trimmed(from, to);
+                    break;
+                case KEY_CREDIT:
+                    reply.credit = trimmed(from, to);
+                    break;
+                case KEY_OK:
+                    reply.ok = trimmed(from, to);
+                    break;
+                default:
+            }
+        }
+
+        /**
+         * @return The leading digits of the value as a number, or -1 if there are none.
+         */
+        private int parseInt(int from, int to) {
+            while (from < to && line[from] == ' ') {
+                from++;
+            }
+            int value = 0, start = from;
+            while (from < to && line[from] >= '0' && line[from] <= '9') {
+                value = value * 10 + (line[from++] - '0');
+            }
+            return from == start ? -1 : value;
+        }
+
+        private String trimmed(int from, int to) {
+            while (from < to && line[from] == ' ') {
+                from++;
+            }
+            while (to > from && line[to - 1] == ' ') {
+                to--;
+            }
+            return from == to ? null : new String(line, from, to - from, UTF_8);
+        }
+    }
+
+    /**
+     * @return The index of the key that starts at the position and is followed by a
+     * colon, or -1 if there is none.
+     */
+    private static int matchKey(byte[] line, int pos, int end) {
+        for (int k = 0; k < KEYS.length; k++) {
+            byte[] key = KEYS[k];
+            int colon = pos + key.length;
+            if (colon >= end || line[colon] != ':') {
+                continue;
+            }
+            int i = 0;
+            while (i < key.length && (line[pos + i] | 0x20) == key[i]) {
+                i++;
+            }
+            if (i == key.length) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
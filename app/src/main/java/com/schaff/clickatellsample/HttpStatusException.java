@@ -0,0 +1,43 @@
+package com.schaff.clickatellsample;
+
+import java.io.IOException;
+
+/**
+ * This is thrown by ClickatellTransport when the server answers with a status that
+ * means it could not handle the request right now: 429 (too many requests) or any
+ * 5xx. The body of such a response is not passed on to the client.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param statusCode       The HTTP status of the response.
+     * @param retryAfterMillis The wait the server asked for with Retry-After, or -1 if it did not.
+     */
+    public HttpStatusException(int statusCode, long retryAfterMillis) {
+        super("The server responded with status " + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return The HTTP status of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The wait the server asked for with Retry-After, or -1 if it did not.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,129 @@
+package com.schaff.clickatellsample;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This keeps the status of every tracked message in a map, until it is forgotten.
+ * <p/>
+ * A receipt can come in before the send that got the message ID has returned, and
+ * so before the message is tracked. The latest EARLY_RECEIPTS of those statuses are
+ * kept apart, and taken over when the message is tracked.
+ * <p/>
+ * Once a message has a final status (see DeliveryReceipt.isFinal) a late receipt
+ * for an earlier status does not change it.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class InMemoryMessageTracker implements MessageTracker {
+
+    /**
+     * The number of receipts for untracked messages that are kept.
+     */
+    public static final int EARLY_RECEIPTS = 10000;
+
+    private static final Integer NO_STATUS = -1;
+
+    private final ConcurrentHashMap<String, Integer> statuses = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The statuses of receipts for messages that were not tracked, oldest first. Guarded by itself.
+     */
+    private final Map<String, Integer> early = new LinkedHashMap<String, Integer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > EARLY_RECEIPTS;
+        }
+    };
+
+    /**
+     * This starts tracking every message of a batch that got a message ID.
+     *
+     * @param batch The results of a send.
+     */
+    public void track(MessageBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isAccepted(i)) {
+                track(batch.getMessageId(i));
+            }
+        }
+    }
+
+    @Override
+    public void track(String apiMessageId) {
+        if (statuses.putIfAbsent(apiMessageId, NO_STATUS) != null) {
+            return;
+        }
+        Integer status;
+        synchronized (early) {
+            status = early.isEmpty() ? null : early.remove(apiMessageId);
+        }
+        if (status != null) {
+            apply(apiMessageId, status);
+        }
+    }
+
+    @Override
+    public boolean update(DeliveryReceipt receipt) {
+        String id = receipt.getApiMessageId();
+        if (id == null) {
+            return false;
+        }
+        int status = receipt.getStatus();
+        if (apply(id, status)) {
+            return true;
+        }
+        synchronized (early) {
+            Integer kept = early.get(id);
+            if (kept == null || DeliveryReceipt.replaces(status, kept)) {
+                early.put(id, status);
+            }
+        }
+        // It may have been tracked in the meantime:
+        if (statuses.containsKey(id)) {
+            Integer kept;
+            synchronized (early) {
+                kept = early.remove(id);
+            }
+            apply(id, kept == null ? status : kept);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This records a status, unless it would undo a final one.
+     *
+     * @return Whether the message is tracked.
+     */
+    private boolean apply(String id, int status) {
+        while (true) {
+            Integer current = statuses.get(id);
+            if (current == null) {
+                return false;
+            }
+            if (!DeliveryReceipt.replaces(status, current) || statuses.replace(id, current, status)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int getStatus(String apiMessageId) {
+        Integer status = statuses.get(apiMessageId);
+        return status == null ? -1 : status;
+    }
+
+    @Override
+    public boolean forget(String apiMessageId) {
+        return statuses.remove(apiMessageId) != null;
+    }
+
+    /**
+     * @return The number of messages being tracked.
+     */
+    public int size() {
+        return statuses.size();
+    }
+}
@@ -0,0 +1,163 @@
+package com.schaff.clickatellsample;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This keeps a latency histogram and counters for every endpoint in memory. Read
+ * them with get, or all at once as text with scrape.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * The percentiles that scrape reports, and their quantile labels.
+     */
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private static final String[] QUANTILES = {"0.5", "0.99", "0.999"};
+
+    /**
+     * These are the numbers for one endpoint.
+     */
+    public static final class EndpointMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong requests = new AtomicLong(), errors = new AtomicLong(),
+                timeouts = new AtomicLong(), rejected = new AtomicLong(),
+                bytesSent = new AtomicLong(), bytesReceived = new AtomicLong();
+
+        /**
+         * @return The latencies of the requests that were sent, whatever their outcome.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return The number of requests, including rejected ones.
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        public long getTimeoutCount() {
+            return timeouts.get();
+        }
+
+        /**
+         * @return The number of requests the circuit breaker did not let through.
+         */
+        public long getRejectedCount() {
+            return rejected.get();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+    }
+
+    private final ConcurrentHashMap<String, EndpointMetrics> endpoints =
+            new ConcurrentHashMap<String, EndpointMetrics>();
+
+    @Override
+    public void record(String endpoint, Outcome outcome, long latencyNanos, long bytesSent, long bytesReceived) {
+        EndpointMetrics metrics = get(endpoint);
+        metrics.requests.incrementAndGet();
+        switch (outcome) {
+            case REJECTED:
+                // Nothing was sent, so there is no latency to speak of:
+                metrics.rejected.incrementAndGet();
+                return;
+            case TIMEOUT:
+                metrics.timeouts.incrementAndGet();
+                break;
+            case ERROR:
+                metrics.errors.incrementAndGet();
+                break;
+            default:
+        }
+        metrics.latency.record(latencyNanos);
+        if (bytesSent > 0) {
+            metrics.bytesSent.addAndGet(bytesSent);
+        }
+        if (bytesReceived > 0) {
+            metrics.bytesReceived.addAndGet(bytesReceived);
+        }
+    }
+
+    /**
+     * @param endpoint The endpoint, for example /http/sendmsg.php.
+     * @return The numbers of the endpoint, which are all 0 if it was never used.
+     */
+    public EndpointMetrics get(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null) {
+            metrics = new EndpointMetrics();
+            EndpointMetrics existing = endpoints.putIfAbsent(endpoint, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The numbers of every endpoint used so far, by endpoint.
+     */
+    public Map<String, EndpointMetrics> getAll() {
+        return new TreeMap<String, EndpointMetrics>(endpoints);
+    }
+
+    /**
+     * This forgets all the numbers.
+     */
+    public void clear() {
+        endpoints.clear();
+    }
+
+    /**
+     * This writes every number out in the Prometheus text format, for example:
+     * <pre>
+     * clickatell_requests_total{endpoint="/http/sendmsg.php"} 12
+     * clickatell_latency_seconds{endpoint="/http/sendmsg.php",quantile="0.99"} 0.183
+     * </pre>
+     *
+     * @return The numbers, one per line.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, EndpointMetrics> entry : getAll().entrySet()) {
+            String label = "{endpoint=\"" + entry.getKey() + "\"";
+            EndpointMetrics m = entry.getValue();
+            line(out, "clickatell_requests_total", label, m.getRequestCount());
+            line(out, "clickatell_errors_total", label, m.getErrorCount());
+            line(out, "clickatell_timeouts_total", label, m.getTimeoutCount());
+            line(out, "clickatell_rejected_total", label, m.getRejectedCount());
+            line(out, "clickatell_bytes_sent_total", label, m.getBytesSent());
+            line(out, "clickatell_bytes_received_total", label, m.getBytesReceived());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                long micros = m.latency.getValueAtPercentile(PERCENTILES[i], TimeUnit.MICROSECONDS);
+                out.append("clickatell_latency_seconds").append(label)
+                        .append(String.format(Locale.US, ",quantile=\"%s\"} %.6f\n", QUANTILES[i], micros / 1e6));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, String label, long value) {
+        out.append(name).append(label).append("} ").append(value).append('\n');
+    }
+}
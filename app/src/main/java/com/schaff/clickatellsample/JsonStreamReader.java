@@ -0,0 +1,383 @@
+package com.schaff.clickatellsample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * This is a small pull parser for JSON. It reads tokens straight off a stream one
+ * at a time, so a response can be walked without ever holding the whole body (or a
+ * tree of it) in memory. The API follows android.util.JsonReader, but this class
+ * has no Android dependencies.
+ * <p/>
+ * The parser is lenient about the separators between tokens (',' and ':'), as it
+ * is meant for reading the responses of a trusted API, not for validating JSON.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class JsonStreamReader implements Closeable {
+
+    /**
+     * The kinds of token that can be next in the stream.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SCOPE_DOCUMENT = 0, SCOPE_OBJECT_NAME = 1, SCOPE_OBJECT_VALUE = 2, SCOPE_ARRAY = 3;
+
+    private final Reader in;
+
+    private final char[] buffer = new char[1024];
+
+    private int pos = 0, limit = 0;
+
+    private int[] scopes = new int[16];
+
+    private int depth = 1;
+
+    /**
+     * This is reused for every string and literal that gets read.
+     */
+    private final StringBuilder value = new StringBuilder();
+
+    /**
+     * Create a reader over the given UTF-8 stream.
+     */
+    public JsonStreamReader(InputStream in) {
+        this(new InputStreamReader(in, UTF_8));
+    }
+
+    /**
+     * Create a reader over the given characters.
+     */
+    public JsonStreamReader(Reader in) {
+        this.in = in;
+        scopes[0] = SCOPE_DOCUMENT;
+    }
+
+    /**
+     * @return The kind of the next token, without consuming it.
+     * @throws IOException If the stream could not be read.
+     */
+    public Token peek() throws IOException {
+        int c = nextNonSeparator();
+        if (c == -1) {
+            return Token.END_DOCUMENT;
+        }
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return scopes[depth - 1] == SCOPE_OBJECT_NAME ? Token.NAME : Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    /**
+     * @return Whether the current object or array has another element.
+     * @throws IOException If the stream could not be read.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * This consumes the start of an object.
+     *
+     * @throws IOException If that is not the next token.
+     */
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        valueConsumed();
+        push(SCOPE_OBJECT_NAME);
+    }
+
+    /**
+     * This consumes the end of the current object.
+     *
+     * @throws IOException If that is not the next token.
+     */
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    /**
+     * This consumes the start of an array.
+     *
+     * @throws IOException If that is not the next token.
+     */
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        valueConsumed();
+        push(SCOPE_ARRAY);
+    }
+
+    /**
+     * This consumes the end of the current array.
+     *
+     * @throws IOException If that is not the next token.
+     */
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    /**
+     * @return The name of the next property in the current object.
+     * @throws IOException If the next token is not a name.
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        scopes[depth - 1] = SCOPE_OBJECT_VALUE;
+        return name;
+    }
+
+    /**
+     * @return The next value as a string. Numbers and booleans are returned as they
+     * were written, and null is returned for a JSON null.
+     * @throws IOException If the next token is not a simple value.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        String result;
+        if (token == Token.STRING) {
+            result = readString();
+        } else if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            result = readLiteral();
+        } else if (token == Token.NULL) {
+            readLiteral();
+            result = null;
+        } else {
+            throw syntaxError("Expected a value but was " + token);
+        }
+        valueConsumed();
+        return result;
+    }
+
+    /**
+     * @return The next value as a boolean, a string of "true" is also accepted.
+     * @throws IOException If the next token is not a boolean.
+     */
+    public boolean nextBoolean() throws IOException {
+        String s = nextString();
+        if ("true".equals(s)) {
+            return true;
+        }
+        if ("false".equals(s)) {
+            return false;
+        }
+        throw syntaxError("Expected a boolean but was " + s);
+    }
+
+    /**
+     * @return The next value as a double, a numeric string is also accepted.
+     * @throws IOException If the next token is not a number.
+     */
+    public double nextDouble() throws IOException {
+        String s = nextString();
+        if (s == null) {
+            throw syntaxError("Expected a number but was null");
+        }
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + s);
+        }
+    }
+
+    /**
+     * This skips the next value, including all of its children.
+     *
+     * @throws IOException If the stream could not be read.
+     */
+    public void skipValue() throws IOException {
+        int count = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    count++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    count++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    count--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    count--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    nextString();
+            }
+        } while (count != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] bigger = new int[depth * 2];
+            System.arraycopy(scopes, 0, bigger, 0, depth);
+            scopes = bigger;
+        }
+        scopes[depth++] = scope;
+    }
+
+    /**
+     * A value in an object is followed by the name of the next property.
+     */
+    private void valueConsumed() {
+        if (scopes[depth - 1] == SCOPE_OBJECT_VALUE) {
+            scopes[depth - 1] = SCOPE_OBJECT_NAME;
+        }
+    }
+
+    /**
+     * @return The next character that is not whitespace or a separator, without
+     * consuming it, or -1 at the end of the stream.
+     */
+    private int nextNonSeparator() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ':') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = in.read(buffer, 0, buffer.length);
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated string");
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * This reads a quoted string, the opening quote has not been consumed.
+     */
+    private String readString() throws IOException {
+        pos++;
+        value.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append((char) c);
+                continue;
+            }
+            c = read();
+            switch (c) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    value.append((char) code);
+                    break;
+                default:
+                    // This covers \" \\ and \/
+                    value.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * This reads an unquoted number, boolean or null.
+     */
+    private String readLiteral() throws IOException {
+        value.setLength(0);
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            value.append(c);
+            pos++;
+        }
+        return value.toString();
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
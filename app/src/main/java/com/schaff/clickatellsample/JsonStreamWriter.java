@@ -0,0 +1,338 @@
+package com.schaff.clickatellsample;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This is the writing half of JsonStreamReader. It encodes JSON tokens straight
+ * to UTF-8 bytes, in one pass, either into a buffer that grows and can be reused
+ * for the next document, or through a small buffer into a stream. Strings are
+ * escaped as they are written, so nothing is ever built up as a String first.
+ * The API follows android.util.JsonWriter, but this class has no Android
+ * dependencies.
+ * <p/>
+ * Quotes, backslashes and control characters are escaped, as are U+2028 and U+2029
+ * and any unpaired surrogate, so the output is always valid JSON and valid UTF-8.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class JsonStreamWriter implements Flushable {
+
+    private static final int SCOPE_EMPTY_DOCUMENT = 0, SCOPE_DOCUMENT = 1, SCOPE_EMPTY_OBJECT = 2,
+            SCOPE_OBJECT = 3, SCOPE_DANGLING_NAME = 4, SCOPE_EMPTY_ARRAY = 5, SCOPE_ARRAY = 6;
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    /**
+     * The stream the buffer is flushed to, or null if the buffer just grows.
+     */
+    private final OutputStream out;
+
+    private byte[] bytes;
+
+    private int length = 0;
+
+    private int[] scopes = new int[16];
+
+    private int depth = 1;
+
+    /**
+     * Create a writer that writes into its own buffer, which grows as needed. The
+     * document is read back with getBuffer and size.
+     */
+    public JsonStreamWriter() {
+        this.out = null;
+        this.bytes = new byte[512];
+    }
+
+    /**
+     * Create a writer that writes to the given stream, through a buffer of 8KB.
+     * Call flush once the document is done.
+     */
+    public JsonStreamWriter(OutputStream out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+        this.out = out;
+        this.bytes = new byte[8192];
+    }
+
+    /**
+     * This starts a new document on this writer, throwing away anything in the
+     * buffer. It is how a buffered writer is reused.
+     */
+    public void reset() {
+        length = 0;
+        depth = 1;
+        scopes[0] = SCOPE_EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter beginObject() throws IOException {
+        return open(SCOPE_EMPTY_OBJECT, '{');
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter endObject() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != SCOPE_EMPTY_OBJECT && scope != SCOPE_OBJECT) {
+            throw new IllegalStateException("Not in an object, or a name has no value");
+        }
+        return close('}');
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter beginArray() throws IOException {
+        return open(SCOPE_EMPTY_ARRAY, '[');
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter endArray() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope != SCOPE_EMPTY_ARRAY && scope != SCOPE_ARRAY) {
+            throw new IllegalStateException("Not in an array");
+        }
+        return close(']');
+    }
+
+    /**
+     * This writes the name of the next member of the current object.
+     *
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        int scope = scopes[depth - 1];
+        if (scope == SCOPE_OBJECT) {
+            write(',');
+        } else if (scope != SCOPE_EMPTY_OBJECT) {
+            throw new IllegalStateException("Not in an object, or a name has no value");
+        }
+        scopes[depth - 1] = SCOPE_DANGLING_NAME;
+        string(name);
+        write(':');
+        return this;
+    }
+
+    /**
+     * This writes a string, or null.
+     *
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter value(CharSequence value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        ascii(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * This writes the given strings as an array, which is quicker than a call per
+     * string.
+     *
+     * @return This writer, so calls can be chained.
+     */
+    public JsonStreamWriter array(String[] values) throws IOException {
+        beforeValue();
+        write('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                write(',');
+            }
+            if (values[i] == null) {
+                ascii("null");
+            } else {
+                string(values[i]);
+            }
+        }
+        write(']');
+        return this;
+    }
+
+    /**
+     * This writes whatever is in the buffer to the stream, and flushes the stream.
+     * A buffered writer has nothing to flush to, so for it this does nothing.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.write(bytes, 0, length);
+            length = 0;
+            out.flush();
+        }
+    }
+
+    /**
+     * @return The buffer the document is in, from 0 to size. Only a buffered writer
+     * holds the whole document, and the buffer is only good until the next write.
+     */
+    byte[] getBuffer() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of bytes in the buffer.
+     */
+    public int size() {
+        return length;
+    }
+
+    private JsonStreamWriter open(int scope, char c) throws IOException {
+        beforeValue();
+        if (depth == scopes.length) {
+            int[] bigger = new int[depth * 2];
+            System.arraycopy(scopes, 0, bigger, 0, depth);
+            scopes = bigger;
+        }
+        scopes[depth++] = scope;
+        write(c);
+        return this;
+    }
+
+    private JsonStreamWriter close(char c) throws IOException {
+        depth--;
+        write(c);
+        return this;
+    }
+
+    /**
+     * This writes the separator a value needs, and checks one is allowed here.
+     */
+    private void beforeValue() throws IOException {
+        switch (scopes[depth - 1]) {
+            case SCOPE_EMPTY_DOCUMENT:
+                scopes[depth - 1] = SCOPE_DOCUMENT;
+                break;
+            case SCOPE_EMPTY_ARRAY:
+                scopes[depth - 1] = SCOPE_ARRAY;
+                break;
+            case SCOPE_ARRAY:
+                write(',');
+                break;
+            case SCOPE_DANGLING_NAME:
+                scopes[depth - 1] = SCOPE_OBJECT;
+                break;
+            case SCOPE_DOCUMENT:
+                throw new IllegalStateException("A document can only have one top level value");
+            default:
+                throw new IllegalStateException("A value in an object needs a name first");
+        }
+    }
+
+    /**
+     * This writes a quoted and escaped string, encoded as UTF-8.
+     */
+    private void string(CharSequence s) throws IOException {
+        write('"');
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    write('\\');
+                    write(c);
+                } else if (c >= 0x20) {
+                    write(c);
+                } else if (c == '\n') {
+                    write('\\');
+                    write('n');
+                } else if (c == '\r') {
+                    write('\\');
+                    write('r');
+                } else if (c == '\t') {
+                    write('\\');
+                    write('t');
+                } else {
+                    escape(c);
+                }
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                write(0xF0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3F));
+                write(0x80 | ((cp >> 6) & 0x3F));
+                write(0x80 | (cp & 0x3F));
+            } else if ((c >= '\uD800' && c <= '\uDFFF') || c == 0x2028 || c == 0x2029) {
+                escape(c);
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void escape(char c) throws IOException {
+        write('\\');
+        write('u');
+        write(HEX[c >> 12]);
+        write(HEX[(c >> 8) & 0xF]);
+        write(HEX[(c >> 4) & 0xF]);
+        write(HEX[c & 0xF]);
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    private void write(int b) throws IOException {
+        if (length == bytes.length) {
+            if (out == null) {
+                byte[] bigger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, bigger, 0, length);
+                bytes = bigger;
+            } else {
+                out.write(bytes, 0, length);
+                length = 0;
+            }
+        }
+        bytes[length++] = (byte) b;
+    }
+}
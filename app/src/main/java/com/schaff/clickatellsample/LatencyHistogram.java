@@ -0,0 +1,135 @@
+package com.schaff.clickatellsample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This counts latencies into buckets, so percentiles can be read without keeping
+ * every value. Latencies are kept in microseconds. Every power of two is split into
+ * 16 buckets, so a percentile is never more than 1/16th above the real value, and
+ * recording is a couple of shifts and one atomic increment.
+ * <p/>
+ * Latencies above about 2^41 microseconds (25 days) are counted as that.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(), max = new AtomicLong();
+
+    /**
+     * This records one latency.
+     *
+     * @param latencyNanos The latency, in nanoseconds.
+     */
+    public void record(long latencyNanos) {
+        long micros = Math.min(MAX_VALUE, Math.max(0, latencyNanos / 1000));
+        counts.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // Someone else raised the max, look again.
+        }
+    }
+
+    /**
+     * @return The number of latencies recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile The percentile, for example 99.9.
+     * @param unit       The unit to return the latency in.
+     * @return The latency that the given percentile of recorded latencies were at or
+     * below, rounded up to the top of its bucket. 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile, TimeUnit unit) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return unit.convert(Math.min(highestIn(i), max.get()), TimeUnit.MICROSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * @param unit The unit to return the latency in.
+     * @return The mean of the recorded latencies, 0 if nothing was recorded.
+     */
+    public double getMean(TimeUnit unit) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        double meanMicros = (double) sum.get() / total;
+        return meanMicros * 1000 / unit.toNanos(1);
+    }
+
+    /**
+     * @param unit The unit to return the latency in.
+     * @return The highest latency recorded.
+     */
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * This forgets everything recorded. Latencies recorded while this runs may be
+     * partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each, after that every power of two is
+     * split into SUB_BUCKETS buckets.
+     */
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The highest value that falls into the bucket.
+     */
+    private static long highestIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,119 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is a set of longs, kept in one long array with open addressing and linear
+ * probing, so there is no object per entry as there is in a HashSet of Long or
+ * String. It is used by RecipientNormalizer to find repeated numbers.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class LongHashSet {
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    /**
+     * The slots, 0 marks an empty one. Whether 0 itself is in the set is kept apart.
+     */
+    private long[] table;
+
+    private int mask, size, resizeAt;
+
+    private boolean hasZero;
+
+    /**
+     * Create a set with room for the given number of entries before it has to grow.
+     */
+    LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expected && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return Whether the value was added, false if it was already in the set.
+     */
+    boolean add(long value) {
+        if (value == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int slot = hash(value) & mask;
+        long existing;
+        while ((existing = table[slot]) != 0) {
+            if (existing == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size > resizeAt) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the value is in the set.
+     */
+    boolean contains(long value) {
+        if (value == 0) {
+            return hasZero;
+        }
+        int slot = hash(value) & mask;
+        long existing;
+        while ((existing = table[slot]) != 0) {
+            if (existing == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of values in the set.
+     */
+    int size() {
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void grow() {
+        long[] old = table;
+        allocate(old.length * 2);
+        for (long value : old) {
+            if (value != 0) {
+                int slot = hash(value) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * The finaliser of MurmurHash3, numbers are close together so they need mixing.
+     */
+    private static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
@@ -0,0 +1,510 @@
+package com.schaff.clickatellsample;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * This is the result of sending one text to many numbers, kept in columns rather
+ * than as an object per message. Message IDs of 32 hex digits, which is what the
+ * API returns, are packed into two longs, status and error codes are shorts, each
+ * distinct error description is kept once, and the numbers are the same strings
+ * that were sent to wherever the API echoed them back. A million results take
+ * tens of MB instead of hundreds.
+ * <p/>
+ * A batch cannot be changed once built, so it can be shared between threads. Read
+ * it by index, or walk it with a Cursor. ClickatellHttp.toMessages and
+ * ClickatellRest.toMessages turn it into a Message array, and toBatch back.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public final class MessageBatch implements Iterable<MessageBatch.Cursor> {
+
+    /**
+     * A batch without any messages.
+     */
+    public static final MessageBatch EMPTY = new Builder(null, 0).build();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int size;
+
+    private final String text;
+
+    private final String[] numbers;
+
+    /**
+     * Two longs per message, the high and low half of a packed message ID.
+     */
+    private final long[] ids;
+
+    /**
+     * A bit per message, set if its ID is packed into ids.
+     */
+    private final long[] packed;
+
+    /**
+     * The IDs that could not be packed, or null if every ID could be.
+     */
+    private final String[] otherIds;
+
+    private final short[] statuses, errorCodes;
+
+    private final String[] errors;
+
+    private final int accepted;
+
+    private MessageBatch(Builder b) {
+        this.size = b.size;
+        this.text = b.text;
+        this.numbers = resize(b.numbers, b.size);
+        this.ids = resize(b.ids, b.size * 2);
+        this.packed = resize(b.packed, (b.size + 63) >> 6);
+        this.otherIds = b.otherIds == null ? null : resize(b.otherIds, b.size);
+        this.statuses = resize(b.statuses, b.size);
+        this.errorCodes = resize(b.errorCodes, b.size);
+        this.errors = resize(b.errors, b.size);
+        this.accepted = b.accepted;
+    }
+
+    /**
+     * This joins batches into one, in the given order. It is how the results of the
+     * chunks of a bulk send are merged. The text is taken from the first batch.
+     *
+     * @param batches The batches to join.
+     * @return One batch with every message of the given batches.
+     */
+    public static MessageBatch concat(List<MessageBatch> batches) {
+        if (batches.size() == 1) {
+            return batches.get(0);
+        }
+        int total = 0;
+        for (MessageBatch batch : batches) {
+            total += batch.size;
+        }
+        Builder b = new Builder(batches.isEmpty() ? null : batches.get(0).text, total);
+        for (MessageBatch batch : batches) {
+            b.append(batch);
+        }
+        return b.build();
+    }
+
+    /**
+     * @return The number of messages in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of messages that got a message ID.
+     */
+    public int getAcceptedCount() {
+        return accepted;
+    }
+
+    /**
+     * @return The text that was sent, or null if it is not known.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The number the message at the given index was sent to.
+     */
+    public String getNumber(int index) {
+        return numbers[check(index)];
+    }
+
+    /**
+     * @return Whether the messages are for exactly the given numbers, in the same order.
+     */
+    boolean isFor(String[] numbers) {
+        if (numbers.length != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!numbers[i].equals(this.numbers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The ID of the message at the given index, or null if it was not accepted.
+     */
+    public String getMessageId(int index) {
+        check(index);
+        if ((packed[index >> 6] & (1L << index)) == 0) {
+            return otherIds == null ? null : otherIds[index];
+        }
+        char[] id = new char[32];
+        unpack(ids[index * 2], id, 0);
+        unpack(ids[index * 2 + 1], id, 16);
+        return new String(id);
+    }
+
+    /**
+     * @return Whether the message at the given index got a message ID.
+     */
+    public boolean isAccepted(int index) {
+        check(index);
+        return (packed[index >> 6] & (1L << index)) != 0 || (otherIds != null && otherIds[index] != null);
+    }
+
+    /**
+     * @return The status code of the message at the given index, or -1 if it has none.
+     */
+    public int getStatus(int index) {
+        return statuses[check(index)];
+    }
+
+    /**
+     * @return The error code of the message at the given index, or -1 if it has none.
+     */
+    public int getErrorCode(int index) {
+        return errorCodes[check(index)];
+    }
+
+    /**
+     * @return The error of the message at the given index, or null if it has none.
+     */
+    public String getError(int index) {
+        return errors[check(index)];
+    }
+
+    /**
+     * @return A new cursor, before the first message.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * The iterator hands out the same Cursor every time, moved on to the next
+     * message, so do not keep hold of it.
+     */
+    @Override
+    public Iterator<Cursor> iterator() {
+        final Cursor cursor = new Cursor();
+        return new Iterator<Cursor>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.index + 1 < size;
+            }
+
+            @Override
+            public Cursor next() {
+                if (!cursor.next()) {
+                    throw new NoSuchElementException();
+                }
+                return cursor;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("A batch cannot be changed");
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return size + " messages, " + accepted + " accepted";
+    }
+
+    /**
+     * @return The number a status or error starts with, such as 1 for "001, Authentication
+     * failed", or -1 if it does not start with one.
+     */
+    static int parseCode(String s) {
+        if (s == null) {
+            return -1;
+        }
+        int code = -1;
+        for (int i = 0; i < s.length() && i < 5; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            code = Math.max(code, 0) * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    /**
+     * @return A status code written the way the API does, such as "004", or null for -1.
+     */
+    static String formatCode(int code) {
+        if (code < 0) {
+            return null;
+        }
+        String s = Integer.toString(code);
+        return s.length() >= 3 ? s : "000".substring(s.length()) + s;
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+        return index;
+    }
+
+    private static void unpack(long bits, char[] into, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            into[offset + i] = HEX[(int) (bits & 0xF)];
+            bits >>>= 4;
+        }
+    }
+
+    /**
+     * This packs an ID of 32 lower case hex digits into two longs.
+     *
+     * @return Whether the ID could be packed.
+     */
+    private static boolean pack(String id, long[] into, int offset) {
+        if (id.length() != 32) {
+            return false;
+        }
+        for (int half = 0; half < 2; half++) {
+            long bits = 0;
+            for (int i = half * 16; i < half * 16 + 16; i++) {
+                char c = id.charAt(i);
+                int digit;
+                if (c >= '0' && c <= '9') {
+                    digit = c - '0';
+                } else if (c >= 'a' && c <= 'f') {
+                    digit = c - 'a' + 10;
+                } else {
+                    return false;
+                }
+                bits = (bits << 4) | digit;
+            }
+            into[offset + half] = bits;
+        }
+        return true;
+    }
+
+    private static String[] resize(String[] a, int length) {
+        if (a.length == length) {
+            return a;
+        }
+        String[] t = new String[length];
+        System.arraycopy(a, 0, t, 0, Math.min(a.length, length));
+        return t;
+    }
+
+    private static long[] resize(long[] a, int length) {
+        if (a.length == length) {
+            return a;
+        }
+        long[] t = new long[length];
+        System.arraycopy(a, 0, t, 0, Math.min(a.length, length));
+        return t;
+    }
+
+    private static short[] resize(short[] a, int length) {
+        if (a.length == length) {
+            return a;
+        }
+        short[] t = new short[length];
+        System.arraycopy(a, 0, t, 0, Math.min(a.length, length));
+        return t;
+    }
+
+    /**
+     * This reads a batch one message at a time. It starts before the first message,
+     * so call next before reading.
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @return Whether there was another message to move to.
+         */
+        public boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        /**
+         * @return The index of the current message.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getNumber() {
+            return MessageBatch.this.getNumber(index);
+        }
+
+        public String getMessageId() {
+            return MessageBatch.this.getMessageId(index);
+        }
+
+        public boolean isAccepted() {
+            return MessageBatch.this.isAccepted(index);
+        }
+
+        public int getStatus() {
+            return MessageBatch.this.getStatus(index);
+        }
+
+        public int getErrorCode() {
+            return MessageBatch.this.getErrorCode(index);
+        }
+
+        public String getError() {
+            return MessageBatch.this.getError(index);
+        }
+    }
+
+    /**
+     * This builds a batch one message at a time. A builder is not thread safe, and
+     * cannot be used again once built.
+     */
+    public static final class Builder {
+        private final String text;
+        private int size = 0, accepted = 0;
+        private String[] numbers;
+        private long[] ids;
+        private long[] packed;
+        private String[] otherIds;
+        private short[] statuses, errorCodes;
+        private String[] errors;
+
+        /**
+         * The distinct errors seen so far, so each is only kept once.
+         */
+        private final Map<String, String> distinctErrors = new HashMap<String, String>();
+
+        /**
+         * @param text     The text that was sent, or null if it is not known.
+         * @param expected The number of messages expected, the builder grows if there are more.
+         */
+        public Builder(String text, int expected) {
+            this.text = text;
+            int capacity = Math.max(expected, 1);
+            numbers = new String[capacity];
+            ids = new long[capacity * 2];
+            packed = new long[(capacity + 63) >> 6];
+            statuses = new short[capacity];
+            errorCodes = new short[capacity];
+            errors = new String[capacity];
+        }
+
+        /**
+         * This adds a message.
+         *
+         * @param number    The number it was sent to.
+         * @param messageId Its message ID, or null if it was not accepted.
+         * @param status    Its status code, or -1.
+         * @param errorCode Its error code, or -1.
+         * @param error     Its error, or null.
+         * @return This builder, so calls can be chained.
+         */
+        public Builder add(String number, String messageId, int status, int errorCode, String error) {
+            ensure(size + 1);
+            if (messageId != null) {
+                accepted++;
+                if (pack(messageId, ids, size * 2)) {
+                    packed[size >> 6] |= 1L << size;
+                } else {
+                    if (otherIds == null) {
+                        otherIds = new String[numbers.length];
+                    }
+                    otherIds[size] = messageId;
+                }
+            }
+            return put(number, status, errorCode, error);
+        }
+
+        private Builder put(String number, int status, int errorCode, String error) {
+            numbers[size] = number;
+            statuses[size] = toShort(status);
+            errorCodes[size] = toShort(errorCode);
+            if (error != null) {
+                String seen = distinctErrors.get(error);
+                if (seen == null) {
+                    distinctErrors.put(error, error);
+                } else {
+                    error = seen;
+                }
+            }
+            errors[size] = error;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return The number of messages added so far.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return The batch, the builder must not be used after this.
+         */
+        public MessageBatch build() {
+            distinctErrors.clear();
+            return new MessageBatch(this);
+        }
+
+        private void append(MessageBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                append(batch, i);
+            }
+        }
+
+        /**
+         * This adds the message at the given index of another batch, as it is.
+         *
+         * @return This builder, so calls can be chained.
+         */
+        Builder append(MessageBatch batch, int i) {
+            if ((batch.packed[i >> 6] & (1L << i)) == 0) {
+                return add(batch.numbers[i], batch.otherIds == null ? null : batch.otherIds[i],
+                        batch.statuses[i], batch.errorCodes[i], batch.errors[i]);
+            }
+            // Copy the packed ID as it is:
+            ensure(size + 1);
+            ids[size * 2] = batch.ids[i * 2];
+            ids[size * 2 + 1] = batch.ids[i * 2 + 1];
+            packed[size >> 6] |= 1L << size;
+            accepted++;
+            return put(batch.numbers[i], batch.statuses[i], batch.errorCodes[i], batch.errors[i]);
+        }
+
+        private static short toShort(int code) {
+            return code < 0 || code > Short.MAX_VALUE ? -1 : (short) code;
+        }
+
+        private void ensure(int capacity) {
+            if (capacity <= numbers.length) {
+                return;
+            }
+            int bigger = Math.max(numbers.length * 2, capacity);
+            numbers = resize(numbers, bigger);
+            ids = resize(ids, bigger * 2);
+            packed = resize(packed, (bigger + 63) >> 6);
+            if (otherIds != null) {
+                otherIds = resize(otherIds, bigger);
+            }
+            statuses = resize(statuses, bigger);
+            errorCodes = resize(errorCodes, bigger);
+            errors = resize(errors, bigger);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.schaff.clickatellsample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This is a message with placeholders, such as "Hi {name}, your code is {code}",
+ * that is parsed once and can then be rendered for any number of people. Rendering
+ * appends the pieces of the template and the values straight into a buffer that
+ * is reused by the thread, rather than building each text by concatenation.
+ * <p/>
+ * The sendMessageBatch calls render the text of every number, put the numbers
+ * whose texts came out the same together, in requests of up to 300 numbers, and
+ * send those requests concurrently through the client:
+ * <pre>
+ * MessageTemplate template = MessageTemplate.compile("Hi {name}, your code is {code}");
+ * String[][] values = {{"Anna", "1234"}, {"Ben", "5678"}};
+ * MessageBatch result = template.sendMessageBatch(rest, numbers, values);
+ * </pre>
+ * Clickatell takes one text per request, so a template whose values are the same
+ * for many people (such as a {city}) is sent nearly as fast as the same text to
+ * everyone, while every text that is unique costs a request of its own.
+ * <p/>
+ * If a request fails after others went out, a PartialSendException is thrown with
+ * the results of those that did, so they are not sent twice when the rest are
+ * tried again.
+ * <p/>
+ * Use {{ and }} for a { or } in the text. A template can be shared by many threads.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public final class MessageTemplate {
+
+    /**
+     * The most numbers that are put in one request.
+     */
+    public static final int MAX_RECIPIENTS_PER_REQUEST = 300;
+
+    /**
+     * The number of requests in flight at once, for sendMessageBatch if not told otherwise.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * The largest buffer a thread keeps between renders, larger ones are let go.
+     */
+    private static final int MAX_KEPT_BUFFER = 4096;
+
+    /**
+     * Every thread renders into its own buffer.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String text;
+
+    /**
+     * The text between the placeholders, there is always one more than there are placeholders.
+     */
+    private final String[] literals;
+
+    /**
+     * The index into names of every placeholder, in the order they appear.
+     */
+    private final int[] slots;
+
+    /**
+     * The distinct names of the placeholders, in the order they first appear.
+     */
+    private final String[] names;
+
+    private final int literalLength;
+
+    private MessageTemplate(String text, String[] literals, int[] slots, String[] names) {
+        this.text = text;
+        this.literals = literals;
+        this.slots = slots;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * This parses a template.
+     *
+     * @param text The text of the message, with a {name} for every value.
+     * @return The compiled template.
+     * @throws IllegalArgumentException If a placeholder is not closed or has no name.
+     */
+    public static MessageTemplate compile(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("A template is needed");
+        }
+        List<String> literals = new ArrayList<String>();
+        List<Integer> slots = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            boolean doubled = i + 1 < length && text.charAt(i + 1) == c;
+            if (c == '}' && doubled) {
+                literal.append('}');
+                i++;
+            } else if (c != '{') {
+                literal.append(c);
+            } else if (doubled) {
+                literal.append('{');
+                i++;
+            } else {
+                int end = text.indexOf('}', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("The placeholder at " + i + " is not closed: " + text);
+                }
+                String name = text.substring(i + 1, end).trim();
+                if (name.length() == 0 || name.indexOf('{') >= 0) {
+                    throw new IllegalArgumentException("The placeholder at " + i + " has no name: " + text);
+                }
+                int slot = names.indexOf(name);
+                if (slot < 0) {
+                    slot = names.size();
+                    names.add(name);
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                slots.add(slot);
+                i = end;
+            }
+        }
+        literals.add(literal.toString());
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new MessageTemplate(text, literals.toArray(new String[literals.size()]), slotArray,
+                names.toArray(new String[names.size()]));
+    }
+
+    /**
+     * @return The text the template was compiled from.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The names of the placeholders, in the order their values are given to render.
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * This renders the message for one person.
+     *
+     * @param values The value of every name, in the order of getNames. A null value is left out.
+     * @return The message.
+     */
+    public String render(String... values) {
+        StringBuilder buffer = BUFFERS.get();
+        buffer.setLength(0);
+        String message = renderTo(buffer, values).toString();
+        if (buffer.capacity() > MAX_KEPT_BUFFER) {
+            BUFFERS.remove();
+        }
+        return message;
+    }
+
+    /**
+     * This renders the message for one person, with the values looked up by name.
+     *
+     * @param values The value of every name. A null value is left out.
+     * @return The message.
+     * @throws IllegalArgumentException If a name has no value.
+     */
+    public String render(Map<String, ?> values) {
+        String[] ordered = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Object value = values.get(names[i]);
+            if (value == null && !values.containsKey(names[i])) {
+                throw new IllegalArgumentException("There is no value for {" + names[i] + "}");
+            }
+            ordered[i] = value == null ? null : value.toString();
+        }
+        return render(ordered);
+    }
+
+    /**
+     * This renders the message for one person onto the end of a buffer.
+     *
+     * @param out    The buffer to append to.
+     * @param values The value of every name, in the order of getNames. A null value is left out.
+     * @return The buffer, so calls can be chained.
+     * @throws IllegalArgumentException If there are fewer values than names.
+     */
+    public StringBuilder renderTo(StringBuilder out, String... values) {
+        if (values.length < names.length) {
+            throw new IllegalArgumentException("The template needs " + names.length + " values, not "
+                    + values.length);
+        }
+        out.ensureCapacity(out.length() + literalLength + 16 * slots.length);
+        out.append(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            String value = values[slots[i]];
+            if (value != null) {
+                out.append(value);
+            }
+            out.append(literals[i + 1]);
+        }
+        return out;
+    }
+
+    /**
+     * This renders and sends the message to every number, with DEFAULT_PARALLELISM
+     * requests in flight at once.
+     *
+     * @param client  The client to send through.
+     * @param numbers The numbers to send to.
+     * @param values  The values for each number, in the order of getNames.
+     * @return The number and the message ID or error of each message, in the same order as the numbers.
+     * @throws PartialSendException If a request failed after others went out, with their results.
+     * @throws Exception            This gets thrown if a request failed before any went out, such as
+     *                              on auth errors.
+     */
+    public MessageBatch sendMessageBatch(ClickatellClient client, String[] numbers, String[][] values)
+            throws Exception {
+        return sendAdvancedMessageBatch(client, numbers, values, null, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * This is sendMessageBatch, with extra features and the number of requests to
+     * have in flight at once. The requests run on the shared default executor.
+     *
+     * @param features    The extra features that should be included, may be null.
+     * @param parallelism The most requests to have in flight at once.
+     */
+    public MessageBatch sendAdvancedMessageBatch(ClickatellClient client, String[] numbers, String[][] values,
+                                                 Map<String, String> features, int parallelism)
+            throws Exception {
+        return sendAdvancedMessageBatch(client, numbers, values, features, parallelism,
+                ClickatellAsync.getDefaultExecutor());
+    }
+
+    /**
+     * This is sendAdvancedMessageBatch, with the requests run on the given executor.
+     * The calling thread sends requests too, so this can be called from one of the
+     * executor's own threads.
+     *
+     * @param executor The executor the extra requests run on.
+     */
+    public MessageBatch sendAdvancedMessageBatch(final ClickatellClient client, String[] numbers,
+                                                 String[][] values, final Map<String, String> features,
+                                                 int parallelism, ExecutorService executor) throws Exception {
+        if (values.length != numbers.length) {
+            throw new IllegalArgumentException("There must be values for every number");
+        }
+        // Put the numbers whose messages are the same together:
+        Map<String, Group> groups = new LinkedHashMap<String, Group>();
+        StringBuilder buffer = new StringBuilder(literalLength + 16 * slots.length);
+        for (int i = 0; i < numbers.length; i++) {
+            buffer.setLength(0);
+            String message = renderTo(buffer, values[i]).toString();
+            Group group = groups.get(message);
+            if (group == null) {
+                group = new Group(message);
+                groups.put(message, group);
+            }
+            group.add(i);
+        }
+
+        // Split every group into requests:
+        final List<Group> requestGroups = new ArrayList<Group>();
+        final List<Integer> requestStarts = new ArrayList<Integer>();
+        for (Group group : groups.values()) {
+            for (int start = 0; start < group.size; start += MAX_RECIPIENTS_PER_REQUEST) {
+                requestGroups.add(group);
+                requestStarts.add(start);
+            }
+        }
+        final String[][] requestNumbers = new String[requestGroups.size()][];
+        for (int r = 0; r < requestNumbers.length; r++) {
+            Group group = requestGroups.get(r);
+            int start = requestStarts.get(r);
+            String[] to = new String[Math.min(MAX_RECIPIENTS_PER_REQUEST, group.size - start)];
+            for (int j = 0; j < to.length; j++) {
+                to[j] = numbers[group.indices[start + j]];
+            }
+            requestNumbers[r] = to;
+        }
+
+        MessageBatch[] results = new MessageBatch[requestNumbers.length];
+        Exception failure = null;
+        try {
+            BulkDispatcher.dispatch(results, parallelism, executor, new BulkDispatcher.RequestSender() {
+                @Override
+                public MessageBatch send(int request) throws Exception {
+                    String message = requestGroups.get(request).message;
+                    return features == null
+                            ? client.sendBulkMessageBatch(requestNumbers[request], message, 1)
+                            : client.sendAdvancedMessageBatch(requestNumbers[request], message, features);
+                }
+            });
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        // Put the results back in the order of the numbers:
+        MessageBatch[] batchOf = new MessageBatch[numbers.length];
+        int[] rowOf = new int[numbers.length];
+        RecipientNormalizer normalizer = client.getRecipientNormalizer();
+        for (int r = 0; r < results.length; r++) {
+            Group group = requestGroups.get(r);
+            int start = requestStarts.get(r);
+            String[] to = requestNumbers[r];
+            MessageBatch batch = results[r];
+            if (batch == null) {
+                // Not sent, as another request failed:
+                continue;
+            }
+            if (batch.size() == to.length) {
+                for (int j = 0; j < to.length; j++) {
+                    batchOf[group.indices[start + j]] = batch;
+                    rowOf[group.indices[start + j]] = j;
+                }
+                continue;
+            }
+            // Some numbers were dropped or merged by the client's RecipientNormalizer,
+            // so match the results up by number, each result to one number only:
+            Map<String, Integer> rows = new HashMap<String, Integer>();
+            for (int j = batch.size() - 1; j >= 0; j--) {
+                rows.put(batch.getNumber(j), j);
+            }
+            for (int j = 0; j < to.length; j++) {
+                Integer row = to[j] == null ? null : rows.remove(to[j]);
+                if (row == null && normalizer != null && to[j] != null) {
+                    long value = normalizer.encode(to[j]);
+                    row = value < 0 ? null : rows.remove(Long.toString(value));
+                }
+                if (row != null) {
+                    batchOf[group.indices[start + j]] = batch;
+                    rowOf[group.indices[start + j]] = row;
+                }
+            }
+        }
+        MessageBatch.Builder merged = new MessageBatch.Builder(null, numbers.length);
+        for (int i = 0; i < numbers.length; i++) {
+            if (batchOf[i] != null) {
+                merged.append(batchOf[i], rowOf[i]);
+            }
+        }
+        if (failure == null) {
+            return merged.build();
+        }
+        if (merged.size() == 0) {
+            throw failure;
+        }
+        throw new PartialSendException(merged.build(), failure);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * The indices of the numbers that one message goes to.
+     */
+    private static final class Group {
+        private final String message;
+        private int[] indices = new int[4];
+        private int size = 0;
+
+        Group(String message) {
+            this.message = message;
+        }
+
+        void add(int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+            }
+            indices[size++] = index;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This keeps the latest status of the messages being tracked, as the delivery
+ * receipts come in. InMemoryMessageTracker keeps them in a map, MessageTrackingStore
+ * keeps millions of them off the heap, or implement this to keep them wherever you
+ * need them.
+ * <p/>
+ * DeliveryReceiptReceiver calls update on its one thread for every receipt, so it
+ * must be thread safe and quick.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public interface MessageTracker {
+
+    /**
+     * This starts tracking a message that was sent.
+     *
+     * @param apiMessageId The ID of the message, as returned when it was sent.
+     */
+    void track(String apiMessageId);
+
+    /**
+     * This records the status of a receipt, if its message is tracked.
+     *
+     * @param receipt The receipt that came in.
+     * @return Whether the message was tracked.
+     */
+    boolean update(DeliveryReceipt receipt);
+
+    /**
+     * @return The latest status code of the message, or -1 if it is not tracked or
+     * no receipt has come in for it yet.
+     */
+    int getStatus(String apiMessageId);
+
+    /**
+     * This stops tracking a message.
+     *
+     * @return Whether the message was tracked.
+     */
+    boolean forget(String apiMessageId);
+}
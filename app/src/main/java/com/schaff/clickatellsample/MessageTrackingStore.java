@@ -0,0 +1,665 @@
+package com.schaff.clickatellsample;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This tracks messages outside the Java heap, so millions of them cost no garbage
+ * collection time. Each message is a record of RECORD_BYTES in a direct
+ * ByteBuffer, found by its message ID with open addressing:
+ * <pre>
+ * 0   kind        empty, a 32 hex digit ID packed into 16 bytes, or any other ID of up to 32 ASCII characters
+ * 1   ID length   for other IDs
+ * 2   status      the latest status code, or -1
+ * 4   tracked at  seconds since the store was made
+ * 8   updated at  seconds since the store was made
+ * 12  charge      in millionths of a credit, or -1
+ * 16  ID          32 bytes
+ * 48  number      the number sent to, as a long, or -1
+ * 56  timestamp   of the latest receipt, in seconds since the epoch, or 0
+ * </pre>
+ * The table is split into up to MAX_STRIPES, each with its own buffer and lock, so receipts
+ * from a DeliveryReceiptReceiver and results of status lookups can be written
+ * from many threads at once. Removing a record moves the ones after it back, so
+ * there are no tombstones and lookups stay short.
+ * <p/>
+ * A message that has not been updated for the time to live is expired: by
+ * expire, by startExpiring on a background thread, or when its stripe is full.
+ * A receipt for a message that is not tracked yet is kept too, as it can come in
+ * before the send that got the ID returns; it expires like any other. A late
+ * receipt for an earlier status does not undo a final one, see DeliveryReceipt.isFinal.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class MessageTrackingStore implements MessageTracker {
+
+    public static final int RECORD_BYTES = 64;
+
+    /**
+     * The most stripes the table is split into, a small store has fewer.
+     */
+    public static final int MAX_STRIPES = 64;
+
+    /**
+     * The fewest messages a stripe is made for, so they spread over the stripes evenly enough.
+     */
+    private static final int MIN_STRIPE_CAPACITY = 4096;
+
+    /**
+     * The share of the slots that are filled at most, so probes stay short.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * The share of the slots of one stripe that can be filled before it is full.
+     */
+    private static final double MAX_LOAD_FACTOR = 0.9;
+
+    private static final double UNITS_PER_CREDIT = 1000000d;
+
+    private static final int KIND = 0, ID_LENGTH = 1, STATUS = 2, TRACKED_AT = 4, UPDATED_AT = 8, CHARGE = 12,
+            ID = 16, NUMBER = 48, TIMESTAMP = 56;
+
+    private static final byte EMPTY = 0, HEX_ID = 1, OTHER_ID = 2;
+
+    /**
+     * Set on the kind of a record that was made by a receipt, not by track.
+     */
+    private static final byte UNTRACKED = 4;
+
+    private static final int MAX_ID_LENGTH = 32;
+
+    private final Stripe[] stripes;
+
+    private final int stripeShift;
+
+    private final long createdAt = System.currentTimeMillis();
+
+    private final int timeToLiveSeconds;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a store.
+     *
+     * @param capacity   The number of messages it can hold, the buffers are allocated for this
+     *                   many now. Messages are spread over the stripes by their ID, so it
+     *                   can be full a little before this, or hold a little more.
+     * @param timeToLive How long a message is kept after it was last updated.
+     * @param unit       The unit of the time to live.
+     */
+    public MessageTrackingStore(int capacity, long timeToLive, TimeUnit unit) {
+        if (capacity < 1 || timeToLive < 1) {
+            throw new IllegalArgumentException("Capacity and time to live must be at least 1");
+        }
+        this.timeToLiveSeconds = (int) Math.min(Math.max(unit.toSeconds(timeToLive), 1), Integer.MAX_VALUE);
+        int count = 1;
+        while (count < MAX_STRIPES && capacity / (count * 2) >= MIN_STRIPE_CAPACITY) {
+            count *= 2;
+        }
+        this.stripes = new Stripe[count];
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+        int perStripe = (capacity + count - 1) / count;
+        int slots = (int) Math.ceil(perStripe / LOAD_FACTOR) + 1;
+        if ((long) slots * RECORD_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity is too large: " + capacity);
+        }
+        // Messages do not spread over the stripes quite evenly, so let each take more than its share:
+        int maxPerStripe = Math.min((int) (slots * MAX_LOAD_FACTOR), slots - 1);
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(slots, maxPerStripe);
+        }
+    }
+
+    /**
+     * This starts tracking every message of a batch that got a message ID, with its number.
+     *
+     * @param batch The results of a send.
+     */
+    public void track(MessageBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isAccepted(i)) {
+                track(batch.getMessageId(i), batch.getNumber(i));
+            }
+        }
+    }
+
+    @Override
+    public void track(String apiMessageId) {
+        track(apiMessageId, null);
+    }
+
+    /**
+     * This starts tracking a message that was sent.
+     *
+     * @param apiMessageId The ID of the message, as returned when it was sent.
+     * @param number       The number it was sent to, or null.
+     * @throws IllegalStateException If the store is full, even once expired messages are removed.
+     */
+    public void track(String apiMessageId, String number) {
+        Key key = new Key(apiMessageId);
+        Stripe stripe = stripeOf(key);
+        int now = now();
+        synchronized (stripe) {
+            int at = stripe.findOrAdd(key, now);
+            ByteBuffer b = stripe.buffer;
+            byte kind = b.get(at + KIND);
+            if ((kind & UNTRACKED) != 0) {
+                b.put(at + KIND, (byte) (kind & ~UNTRACKED));
+                b.putInt(at + TRACKED_AT, now);
+            }
+            if (number != null) {
+                b.putLong(at + NUMBER, parseNumber(number));
+            }
+        }
+    }
+
+    @Override
+    public boolean update(DeliveryReceipt receipt) {
+        String id = receipt.getApiMessageId();
+        Key key = Key.of(id);
+        if (key == null) {
+            return false;
+        }
+        Stripe stripe = stripeOf(key);
+        int now = now();
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            boolean tracked = at >= 0;
+            if (!tracked) {
+                try {
+                    at = stripe.findOrAdd(key, now);
+                } catch (IllegalStateException e) {
+                    // Full, so the early receipt is not kept.
+                    return false;
+                }
+                stripe.buffer.put(at + KIND, (byte) (stripe.buffer.get(at + KIND) | UNTRACKED));
+            } else {
+                tracked = (stripe.buffer.get(at + KIND) & UNTRACKED) == 0;
+            }
+            ByteBuffer b = stripe.buffer;
+            if (DeliveryReceipt.replaces(receipt.getStatus(), b.getShort(at + STATUS))) {
+                b.putShort(at + STATUS, toShort(receipt.getStatus()));
+            }
+            if (receipt.getCharge() >= 0) {
+                b.putInt(at + CHARGE, toUnits(receipt.getCharge()));
+            }
+            if (receipt.getTimestamp() > 0) {
+                b.putLong(at + TIMESTAMP, receipt.getTimestamp());
+            }
+            b.putInt(at + UPDATED_AT, now);
+            return tracked;
+        }
+    }
+
+    /**
+     * This records the status of a tracked message, such as one from getMessageStatus.
+     *
+     * @return Whether the message was tracked.
+     */
+    public boolean updateStatus(String apiMessageId, int status) {
+        return update(apiMessageId, status, -1);
+    }
+
+    /**
+     * This records the charge and status of a tracked message, such as from getMessageCharge.
+     *
+     * @param charge The charge in credits, or -1 to leave it as it is.
+     * @param status The status code, or -1 to leave it as it is.
+     * @return Whether the message was tracked.
+     */
+    public boolean updateCharge(String apiMessageId, double charge, int status) {
+        return update(apiMessageId, status, charge);
+    }
+
+    private boolean update(String apiMessageId, int status, double charge) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return false;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            if (at < 0) {
+                return false;
+            }
+            ByteBuffer b = stripe.buffer;
+            if (DeliveryReceipt.replaces(status, b.getShort(at + STATUS))) {
+                b.putShort(at + STATUS, toShort(status));
+            }
+            if (charge >= 0) {
+                b.putInt(at + CHARGE, toUnits(charge));
+            }
+            b.putInt(at + UPDATED_AT, now());
+            return true;
+        }
+    }
+
+    @Override
+    public int getStatus(String apiMessageId) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return -1;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            return at < 0 ? -1 : stripe.buffer.getShort(at + STATUS);
+        }
+    }
+
+    /**
+     * @return The charge of the message in credits, or -1 if it is not known.
+     */
+    public double getCharge(String apiMessageId) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return -1;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            int units = at < 0 ? -1 : stripe.buffer.getInt(at + CHARGE);
+            return units < 0 ? -1 : units / UNITS_PER_CREDIT;
+        }
+    }
+
+    /**
+     * @return The number the message was sent to, or null if it is not known.
+     */
+    public String getNumber(String apiMessageId) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return null;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            long number = at < 0 ? -1 : stripe.buffer.getLong(at + NUMBER);
+            return number < 0 ? null : Long.toString(number);
+        }
+    }
+
+    /**
+     * @return When the message was last updated, in milliseconds since the epoch,
+     * to the second, or -1 if it is not tracked.
+     */
+    public long getUpdatedAt(String apiMessageId) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return -1;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            return at < 0 ? -1 : createdAt + TimeUnit.SECONDS.toMillis(stripe.buffer.getInt(at + UPDATED_AT));
+        }
+    }
+
+    @Override
+    public boolean forget(String apiMessageId) {
+        Key key = Key.of(apiMessageId);
+        if (key == null) {
+            return false;
+        }
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int at = stripe.find(key);
+            if (at < 0) {
+                return false;
+            }
+            stripe.remove(at / RECORD_BYTES);
+            return true;
+        }
+    }
+
+    /**
+     * This removes every message that has not been updated for the time to live.
+     *
+     * @return The number of messages removed.
+     */
+    public int expire() {
+        int oldest = now() - timeToLiveSeconds;
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                removed += stripe.expire(oldest);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * This expires messages on a background thread at a fixed rate, until stopExpiring is called.
+     *
+     * @param period The time between expiries.
+     * @param unit   The unit of the period.
+     */
+    public synchronized void startExpiring(long period, TimeUnit unit) {
+        stopExpiring();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clickatell-tracking-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * This stops the background expiry.
+     */
+    public synchronized void stopExpiring() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return The number of messages in the store, including receipts for untracked ones.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The bytes allocated outside the heap.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    private Stripe stripeOf(Key key) {
+        // The top bits pick the stripe, and the bottom ones the slot in it:
+        return stripeShift == 64 ? stripes[0] : stripes[(int) (key.hash >>> stripeShift)];
+    }
+
+    private int now() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - createdAt);
+    }
+
+    private static short toShort(int code) {
+        return code < 0 || code > Short.MAX_VALUE ? -1 : (short) code;
+    }
+
+    private static int toUnits(double credits) {
+        return (int) Math.min(Math.round(credits * UNITS_PER_CREDIT), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The number as a long, or -1 if it is not all digits.
+     */
+    private static long parseNumber(String number) {
+        int n = number.length();
+        if (n == 0 || n > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < n; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * A message ID, packed if it is 32 hex digits, and its hash.
+     */
+    static final class Key {
+        private final String id;
+        private final boolean hex;
+        private long high, low;
+        private final long hash;
+
+        Key(String id) {
+            if (id == null || id.length() == 0 || id.length() > MAX_ID_LENGTH) {
+                throw new IllegalArgumentException("Not a message ID: " + id);
+            }
+            this.id = id;
+            boolean packed = id.length() == 32;
+            for (int i = 0; packed && i < 32; i++) {
+                int digit = hexDigit(id.charAt(i));
+                if (digit < 0) {
+                    packed = false;
+                } else if (i < 16) {
+                    high = (high << 4) | digit;
+                } else {
+                    low = (low << 4) | digit;
+                }
+            }
+            this.hex = packed;
+            if (packed) {
+                this.hash = mix(high * 31 + low);
+            } else {
+                long h = 0;
+                for (int i = 0; i < id.length(); i++) {
+                    h = h * 31 + id.charAt(i);
+                }
+                this.hash = mix(h);
+            }
+        }
+
+        /**
+         * @return The key, or null if the ID is not one that can be stored.
+         */
+        static Key of(String id) {
+            return id == null || id.length() == 0 || id.length() > MAX_ID_LENGTH ? null : new Key(id);
+        }
+
+        int home(int slots) {
+            return (int) ((hash & Long.MAX_VALUE) % slots);
+        }
+
+        boolean matches(ByteBuffer b, int at) {
+            int kind = b.get(at + KIND) & ~UNTRACKED;
+            if (hex) {
+                return kind == HEX_ID && b.getLong(at + ID) == high && b.getLong(at + ID + 8) == low;
+            }
+            if (kind != OTHER_ID || b.get(at + ID_LENGTH) != id.length()) {
+                return false;
+            }
+            for (int i = 0; i < id.length(); i++) {
+                if (b.get(at + ID + i) != (byte) id.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void write(ByteBuffer b, int at) {
+            if (hex) {
+                b.put(at + KIND, HEX_ID);
+                b.putLong(at + ID, high);
+                b.putLong(at + ID + 8, low);
+            } else {
+                b.put(at + KIND, OTHER_ID);
+                b.put(at + ID_LENGTH, (byte) id.length());
+                for (int i = 0; i < id.length(); i++) {
+                    b.put(at + ID + i, (byte) id.charAt(i));
+                }
+            }
+        }
+
+        /**
+         * @return The home slot of the record at the given byte offset, hashed the
+         * same way as its Key was.
+         */
+        static int homeOf(ByteBuffer b, int at, int slots) {
+            long h;
+            if ((b.get(at + KIND) & ~UNTRACKED) == HEX_ID) {
+                h = b.getLong(at + ID) * 31 + b.getLong(at + ID + 8);
+            } else {
+                h = 0;
+                int length = b.get(at + ID_LENGTH);
+                for (int i = 0; i < length; i++) {
+                    h = h * 31 + (b.get(at + ID + i) & 0xFF);
+                }
+            }
+            return (int) ((mix(h) & Long.MAX_VALUE) % slots);
+        }
+
+        /**
+         * The finaliser of MurmurHash3, IDs are close together so they need mixing.
+         */
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /**
+     * One part of the table, guarded by itself.
+     */
+    private final class Stripe {
+        private final ByteBuffer buffer;
+        private final int slots, maxSize;
+        private int size;
+
+        Stripe(int slots, int maxSize) {
+            this.buffer = ByteBuffer.allocateDirect(slots * RECORD_BYTES);
+            this.slots = slots;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return The byte offset of the record, or -1 if it is not there.
+         */
+        int find(Key key) {
+            int slot = key.home(slots);
+            while (true) {
+                int at = slot * RECORD_BYTES;
+                if (buffer.get(at + KIND) == EMPTY) {
+                    return -1;
+                }
+                if (key.matches(buffer, at)) {
+                    return at;
+                }
+                slot = slot + 1 == slots ? 0 : slot + 1;
+            }
+        }
+
+        /**
+         * @return The byte offset of the record, which is added if it is not there.
+         */
+        int findOrAdd(Key key, int now) {
+            int at = find(key);
+            if (at >= 0) {
+                return at;
+            }
+            if (size >= maxSize && expire(now - timeToLiveSeconds) == 0) {
+                throw new IllegalStateException("The tracking store is full");
+            }
+            int slot = key.home(slots);
+            while (buffer.get(slot * RECORD_BYTES + KIND) != EMPTY) {
+                slot = slot + 1 == slots ? 0 : slot + 1;
+            }
+            at = slot * RECORD_BYTES;
+            key.write(buffer, at);
+            buffer.putShort(at + STATUS, (short) -1);
+            buffer.putInt(at + TRACKED_AT, now);
+            buffer.putInt(at + UPDATED_AT, now);
+            buffer.putInt(at + CHARGE, -1);
+            buffer.putLong(at + NUMBER, -1);
+            buffer.putLong(at + TIMESTAMP, 0);
+            size++;
+            return at;
+        }
+
+        /**
+         * This empties a slot, and moves back the records after it that would
+         * otherwise no longer be found.
+         */
+        void remove(int slot) {
+            size--;
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = next + 1 == slots ? 0 : next + 1;
+                int at = next * RECORD_BYTES;
+                if (buffer.get(at + KIND) == EMPTY) {
+                    break;
+                }
+                int home = Key.homeOf(buffer, at, slots);
+                // Move it if its home is not between the hole and where it is now:
+                boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!stays) {
+                    copy(next, hole);
+                    hole = next;
+                }
+            }
+            clear(hole);
+        }
+
+        /**
+         * @return The number of records not updated since the given time, which are removed.
+         */
+        int expire(int oldest) {
+            int removed = 0;
+            int slot = 0;
+            while (slot < slots) {
+                int at = slot * RECORD_BYTES;
+                if (buffer.get(at + KIND) != EMPTY && buffer.getInt(at + UPDATED_AT) < oldest) {
+                    remove(slot);
+                    removed++;
+                    // Another record may have been moved into this slot, look at it again.
+                } else {
+                    slot++;
+                }
+            }
+            return removed;
+        }
+
+        private void copy(int from, int to) {
+            for (int i = 0; i < RECORD_BYTES; i += 8) {
+                buffer.putLong(to * RECORD_BYTES + i, buffer.getLong(from * RECORD_BYTES + i));
+            }
+        }
+
+        private void clear(int slot) {
+            for (int i = 0; i < RECORD_BYTES; i += 8) {
+                buffer.putLong(slot * RECORD_BYTES + i, 0);
+            }
+        }
+    }
+}
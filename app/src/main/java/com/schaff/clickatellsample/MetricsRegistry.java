@@ -0,0 +1,45 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is told about every request a ClickatellTransport sends, see
+ * ClickatellTransport.setMetricsRegistry. InMemoryMetricsRegistry keeps histograms
+ * and counters per endpoint, or implement this to pass the numbers on to your own
+ * metrics library.
+ * <p/>
+ * It is called on the thread that made the request, straight after the request,
+ * so it must be thread safe and quick.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public interface MetricsRegistry {
+
+    enum Outcome {
+        /**
+         * There was a response, and it was handled.
+         */
+        SUCCESS,
+        /**
+         * The request failed, or the response had a 429 or 5xx status.
+         */
+        ERROR,
+        /**
+         * The connection or the response timed out.
+         */
+        TIMEOUT,
+        /**
+         * The circuit breaker of the endpoint was open, so nothing was sent.
+         */
+        REJECTED
+    }
+
+    /**
+     * This records one request.
+     *
+     * @param endpoint      The endpoint, see ClickatellTransport.metricNameOf, for example /http/sendmsg.php.
+     * @param outcome       How the request ended.
+     * @param latencyNanos  The time from sending the request to handling the response.
+     * @param bytesSent     The size of the request body.
+     * @param bytesReceived The number of bytes of the response body that were read.
+     */
+    void record(String endpoint, Outcome outcome, long latencyNanos, long bytesSent, long bytesReceived);
+}
@@ -0,0 +1,611 @@
+package com.schaff.clickatellsample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * This is a durable queue of outbound messages. Every message is written to a
+ * log before it is sent, and marked as done once the gateway has given it a
+ * message ID. If the process dies part way through a campaign, the messages that
+ * were not marked as done are read back when the queue is opened again, see
+ * getPending, and can be sent again with resendPending on either client. A
+ * message the gateway turned down for good, such as one to an invalid number, is
+ * discarded instead, so it is not sent again.
+ * <p/>
+ * The log is a directory of memory mapped segment files. Writing an entry is a
+ * copy into the mapped memory, and a background thread forces the written
+ * entries to disk in groups, so many enqueues share one fsync. Use
+ * enqueueDurable (or awaitDurable) to wait until an entry is on disk. Once every
+ * entry in the oldest segment is done, that segment is deleted.
+ * <p/>
+ * Note that a message that was accepted by the gateway just before the process
+ * died, but not marked as done, will be sent again on resend.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class OutboundQueue implements Closeable {
+
+    /**
+     * The default size of a segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default longest time written entries wait to be forced to disk.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+    /**
+     * This is an entry that has not been marked as done.
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final String number, text;
+
+        Entry(long sequence, String number, String text) {
+            this.sequence = sequence;
+            this.number = number;
+            this.text = text;
+        }
+
+        /**
+         * @return The sequence number, to pass to acknowledge.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SEGMENT_PREFIX = "outbound-", SEGMENT_SUFFIX = ".log";
+
+    private static final byte TYPE_ENQUEUE = 1, TYPE_ACK = 2, TYPE_DISCARD = 3;
+
+    /**
+     * Every record starts with its length and checksum.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final long flushIntervalMillis;
+
+    /**
+     * The segments, by the sequence number of their first record.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+    /**
+     * The entries that are not done yet, in the order they were written.
+     */
+    private final Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] scratch = new byte[512];
+
+    private Segment current;
+
+    private long nextSequence = 1;
+
+    /**
+     * The sequence number of the last record written, and the last one forced to disk.
+     */
+    private long written = 0, flushed = 0;
+
+    private boolean closed = false;
+
+    private final Object flushLock = new Object();
+
+    private final Thread flusher;
+
+    /**
+     * Open (or create) a queue in the given directory, with the default settings.
+     *
+     * @param directory The directory the log is kept in.
+     * @throws IOException If the log could not be read or created.
+     */
+    public OutboundQueue(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Open (or create) a queue in the given directory. Any entries that are not done
+     * are read back, see getPending.
+     *
+     * @param directory           The directory the log is kept in.
+     * @param segmentSize         The size of each segment file.
+     * @param flushIntervalMillis The longest time written entries wait to be forced to disk.
+     * @throws IOException If the log could not be read or created.
+     */
+    public OutboundQueue(File directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segments must be at least 1024 bytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        recover();
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "clickatell-queue-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * This writes a message to the log. It is not on disk until awaitDurable says so.
+     *
+     * @param number The number the message is for.
+     * @param text   The text of the message.
+     * @return The sequence number of the entry.
+     * @throws IOException If the entry could not be written.
+     */
+    public synchronized long enqueue(String number, String text) throws IOException {
+        byte[] numberBytes = number.getBytes(UTF_8);
+        byte[] textBytes = text.getBytes(UTF_8);
+        int length = 1 + 8 + 2 + numberBytes.length + 4 + textBytes.length;
+        long sequence = nextSequence;
+        int pos = begin(length, TYPE_ENQUEUE, sequence);
+        pos = putShort(pos, numberBytes.length);
+        pos = putBytes(pos, numberBytes);
+        pos = putInt(pos, textBytes.length);
+        putBytes(pos, textBytes);
+        append(length);
+        pending.put(sequence, new Entry(sequence, number, text));
+        current.outstanding++;
+        return sequence;
+    }
+
+    /**
+     * This writes a message to the log, and waits until it is on disk.
+     *
+     * @param number The number the message is for.
+     * @param text   The text of the message.
+     * @return The sequence number of the entry.
+     * @throws IOException          If the entry could not be written.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public long enqueueDurable(String number, String text) throws IOException, InterruptedException {
+        long sequence = enqueue(number, text);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * This waits until the given entry, and everything written before it, is on disk.
+     *
+     * @param sequence The sequence number of the entry.
+     * @throws IOException          If the queue was closed first.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void awaitDurable(long sequence) throws IOException, InterruptedException {
+        synchronized (flushLock) {
+            // Wake the flusher, in case it is idle:
+            flushLock.notifyAll();
+            while (flushed < sequence) {
+                if (closed) {
+                    throw new IOException("Queue has been closed");
+                }
+                flushLock.wait();
+            }
+        }
+    }
+
+    /**
+     * This marks an entry as done, it will not be returned by getPending again.
+     * Marking an entry that is already done does nothing.
+     *
+     * @param sequence     The sequence number of the entry.
+     * @param apiMessageId The message ID the gateway gave the message, kept for reference.
+     * @throws IOException If the mark could not be written.
+     */
+    public synchronized void acknowledge(long sequence, String apiMessageId) throws IOException {
+        markDone(TYPE_ACK, sequence, apiMessageId);
+    }
+
+    /**
+     * This marks an entry as done without it being sent, because it never will be,
+     * for example because the number is invalid. It will not be returned by
+     * getPending again. Discarding an entry that is already done does nothing.
+     *
+     * @param sequence  The sequence number of the entry.
+     * @param errorCode The code of the error the gateway gave, or -1 if there was none.
+     * @param error     The description of the error, kept for reference.
+     * @throws IOException If the mark could not be written.
+     */
+    public synchronized void discard(long sequence, int errorCode, String error) throws IOException {
+        markDone(TYPE_DISCARD, sequence, errorCode + (error == null ? "" : ", " + error));
+    }
+
+    /**
+     * @return The entries that are not done yet, in the order they were written:
+     * those read back when the queue was opened, and those written since that were
+     * not sent. This includes entries that are being sent right now, so only resend
+     * them when nothing else is sending from the queue.
+     */
+    public synchronized List<Entry> getPending() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(pending.values()));
+    }
+
+    /**
+     * @return The number of entries that are not done yet.
+     */
+    public synchronized int getOutstandingCount() {
+        return pending.size();
+    }
+
+    /**
+     * This is what a send needs to mark its results in the queue, see settle.
+     *
+     * @param sequences The sequence numbers of the entries being sent.
+     * @param numbers   The numbers of the entries, in the same order.
+     * @return The sequence numbers of the entries, by number.
+     */
+    static Map<String, List<Long>> byNumber(long[] sequences, String[] numbers) {
+        Map<String, List<Long>> byNumber = new HashMap<String, List<Long>>();
+        for (int i = 0; i < numbers.length; i++) {
+            List<Long> list = byNumber.get(numbers[i]);
+            if (list == null) {
+                list = new ArrayList<Long>();
+                byNumber.put(numbers[i], list);
+            }
+            list.add(sequences[i]);
+        }
+        return byNumber;
+    }
+
+    /**
+     * This marks the results of one request as they come back: each message that
+     * got a message ID is acknowledged, and each one turned down because of its
+     * number is discarded. Any other error leaves the entry pending. The results
+     * are matched to the entries by number, as they may come back in another order,
+     * and each match is taken out of byNumber.
+     *
+     * @param results  The results of the request.
+     * @param byNumber The sequence numbers of the entries being sent, see byNumber.
+     * @throws IOException If a mark could not be written.
+     */
+    synchronized void settle(MessageBatch results, Map<String, List<Long>> byNumber) throws IOException {
+        for (MessageBatch.Cursor m : results) {
+            List<Long> list = byNumber.get(m.getNumber());
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+            if (m.isAccepted()) {
+                acknowledge(list.remove(0), m.getMessageId());
+            } else if (ClickatellException.isNumberError(m.getErrorCode())) {
+                discard(list.remove(0), m.getErrorCode(), m.getError());
+            }
+        }
+    }
+
+    /**
+     * This forces everything to disk and closes the segment files.
+     *
+     * @throws IOException If a segment could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            current.buffer.force();
+            synchronized (flushLock) {
+                closed = true;
+                flushed = written;
+                flushLock.notifyAll();
+            }
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+        flusher.interrupt();
+    }
+
+    /**
+     * This writes an acknowledgement or a discard, with a note kept for reference.
+     */
+    private void markDone(byte type, long sequence, String note) throws IOException {
+        if (pending.remove(sequence) == null) {
+            return;
+        }
+        byte[] noteBytes = note == null ? new byte[0] : note.getBytes(UTF_8);
+        int length = 1 + 8 + 8 + 2 + noteBytes.length;
+        int pos = begin(length, type, nextSequence);
+        pos = putLong(pos, sequence);
+        pos = putShort(pos, noteBytes.length);
+        putBytes(pos, noteBytes);
+        append(length);
+
+        Map.Entry<Long, Segment> owner = segments.floorEntry(sequence);
+        if (owner != null) {
+            owner.getValue().outstanding--;
+        }
+        deleteDoneSegments();
+    }
+
+    /**
+     * This reads back every segment, and finds where to carry on writing.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long first = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(first, new Segment(file, segmentSize));
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            replay(segment);
+            current = segment;
+        }
+        if (current == null) {
+            current = newSegment(nextSequence);
+        } else {
+            // Anything after the last good record is a torn write, clear it:
+            ByteBuffer tail = current.buffer.duplicate();
+            tail.position(current.position);
+            byte[] zeros = new byte[4096];
+            while (tail.hasRemaining()) {
+                tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+            }
+        }
+        written = flushed = nextSequence - 1;
+        deleteDoneSegments();
+    }
+
+    private void replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        while (pos + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            ensureScratch(length);
+            ByteBuffer record = buffer.duplicate();
+            record.position(pos + HEADER_SIZE);
+            record.get(scratch, 0, length);
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                break;
+            }
+            byte type = scratch[0];
+            long sequence = getLong(1);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (type == TYPE_ENQUEUE) {
+                int numberLength = getShort(9);
+                String number = new String(scratch, 11, numberLength, UTF_8);
+                int textLength = getInt(11 + numberLength);
+                String text = new String(scratch, 15 + numberLength, textLength, UTF_8);
+                pending.put(sequence, new Entry(sequence, number, text));
+                segment.outstanding++;
+            } else if (type == TYPE_ACK || type == TYPE_DISCARD) {
+                long acknowledged = getLong(9);
+                if (pending.remove(acknowledged) != null) {
+                    Map.Entry<Long, Segment> owner = segments.floorEntry(acknowledged);
+                    if (owner != null) {
+                        owner.getValue().outstanding--;
+                    }
+                }
+            }
+            pos += HEADER_SIZE + length;
+        }
+        segment.position = pos;
+    }
+
+    /**
+     * This makes room in the scratch buffer for a record, and writes its type and
+     * sequence number. Every record, acknowledgements too, takes the next number.
+     *
+     * @return The position in the scratch buffer to carry on writing at.
+     */
+    private int begin(int length, byte type, long sequence) throws IOException {
+        if (closed) {
+            throw new IOException("Queue has been closed");
+        }
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IOException("Entry is too large for a segment");
+        }
+        ensureScratch(length);
+        scratch[0] = type;
+        return putLong(1, sequence);
+    }
+
+    /**
+     * This copies the record in the scratch buffer into the log.
+     */
+    private void append(int length) throws IOException {
+        long sequence = nextSequence;
+        if (current.position + HEADER_SIZE + length > segmentSize) {
+            // The flusher only forces the current segment, so force this one now:
+            current.buffer.force();
+            current = newSegment(sequence);
+        }
+        crc.reset();
+        crc.update(scratch, 0, length);
+        MappedByteBuffer buffer = current.buffer;
+        int pos = current.position;
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        ByteBuffer record = buffer.duplicate();
+        record.position(pos + HEADER_SIZE);
+        record.put(scratch, 0, length);
+        // The length goes last, so a reader never sees half a record:
+        buffer.putInt(pos, length);
+        current.position = pos + HEADER_SIZE + length;
+        nextSequence = sequence + 1;
+        synchronized (flushLock) {
+            written = sequence;
+        }
+    }
+
+    private Segment newSegment(long first) throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%s%020d%s", SEGMENT_PREFIX, first, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, segmentSize);
+        segments.put(first, segment);
+        return segment;
+    }
+
+    /**
+     * This deletes the oldest segments, as long as every entry in them is done.
+     * Segments are only deleted oldest first, so an acknowledgement is never lost
+     * while the entry it marks is still in the log.
+     */
+    private void deleteDoneSegments() throws IOException {
+        while (segments.size() > 1) {
+            Map.Entry<Long, Segment> oldest = segments.firstEntry();
+            Segment segment = oldest.getValue();
+            if (segment == current || segment.outstanding > 0) {
+                return;
+            }
+            segments.remove(oldest.getKey());
+            segment.channel.close();
+            if (!segment.file.delete()) {
+                throw new IOException("Could not delete " + segment.file);
+            }
+        }
+    }
+
+    /**
+     * This forces written records to disk, and wakes up anyone waiting for them.
+     * Everything written while one force is running goes out with the next one, so
+     * the more enqueues there are, the more share each force.
+     */
+    private void flushLoop() {
+        while (true) {
+            long target;
+            Segment segment;
+            synchronized (flushLock) {
+                try {
+                    while (!closed && written == flushed) {
+                        flushLock.wait(flushIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                target = written;
+                segment = current;
+            }
+            segment.buffer.force();
+            synchronized (flushLock) {
+                if (target > flushed) {
+                    flushed = target;
+                }
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    private int putShort(int pos, int value) {
+        scratch[pos] = (byte) (value >>> 8);
+        scratch[pos + 1] = (byte) value;
+        return pos + 2;
+    }
+
+    private int putInt(int pos, int value) {
+        for (int i = 0; i < 4; i++) {
+            scratch[pos + i] = (byte) (value >>> (24 - 8 * i));
+        }
+        return pos + 4;
+    }
+
+    private int putLong(int pos, long value) {
+        for (int i = 0; i < 8; i++) {
+            scratch[pos + i] = (byte) (value >>> (56 - 8 * i));
+        }
+        return pos + 8;
+    }
+
+    private int putBytes(int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, scratch, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private int getShort(int pos) {
+        return ((scratch[pos] & 0xFF) << 8) | (scratch[pos + 1] & 0xFF);
+    }
+
+    private int getInt(int pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (scratch[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private long getLong(int pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (scratch[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * This is one segment file, and its mapping.
+     */
+    private static final class Segment {
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int position = 0;
+        int outstanding = 0;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is thrown by a send made of many requests when one of them failed after
+ * others had already gone out. It carries the results of the requests that went
+ * out, so those messages are not sent again when the send is retried. The
+ * failure itself is the cause.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class PartialSendException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient MessageBatch sent;
+
+    /**
+     * @param sent  The results of the requests that went out.
+     * @param cause The failure of the request that did not.
+     */
+    public PartialSendException(MessageBatch sent, Exception cause) {
+        super("Only " + sent.size() + " messages were sent: " + cause.getMessage(), cause);
+        this.sent = sent;
+    }
+
+    /**
+     * @return The number and the message ID or error of each message that went out,
+     * in the same order as the numbers. The numbers that are not in it were not sent.
+     */
+    public MessageBatch getSent() {
+        return sent;
+    }
+}
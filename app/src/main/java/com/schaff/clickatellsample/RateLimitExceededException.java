@@ -0,0 +1,26 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This is thrown by a send when a non-blocking TokenBucket does not have enough
+ * tokens for it. Nothing was sent, so the send can be tried again later.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class RateLimitExceededException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int permits;
+
+    public RateLimitExceededException(int permits) {
+        super("Rate limit exceeded");
+        this.permits = permits;
+    }
+
+    /**
+     * @return The number of tokens the send needed.
+     */
+    public int getPermits() {
+        return permits;
+    }
+}
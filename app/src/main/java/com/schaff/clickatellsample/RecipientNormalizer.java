@@ -0,0 +1,297 @@
+package com.schaff.clickatellsample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This cleans up a list of numbers before it is sent to. Every number is turned
+ * into international format, the digits only, as the API wants it:
+ * <pre>
+ * +27 82 123-4567     becomes 27821234567
+ * 0027 (0)82 1234567  becomes 27821234567
+ * 082 123 4567        becomes 27821234567, with a default country code of 27
+ * </pre>
+ * Numbers that cannot be made into 7 to 15 digits, or have anything other than
+ * digits, spaces, '-', '.', '/', brackets and a leading '+' in them, are dropped as
+ * invalid. Numbers that are the same once cleaned up are only kept the first time.
+ * <p/>
+ * Each number is parsed straight into a long, and the repeats are found with a
+ * LongHashSet, so even lists of tens of millions need only 16 bytes or so per
+ * number on top of the list itself. Numbers that were already clean are kept as
+ * the same String.
+ * <p/>
+ * Set a normalizer on ClickatellHttp or ClickatellRest with setRecipientNormalizer
+ * to have it run before every send to many numbers. One normalizer can be shared
+ * by many threads.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class RecipientNormalizer {
+
+    /**
+     * Why a number was dropped.
+     */
+    public enum Reason {
+        INVALID, DUPLICATE
+    }
+
+    /**
+     * This gets told about every number that is dropped.
+     */
+    public interface DropListener {
+        /**
+         * @param index  The index of the number in the list that was normalized.
+         * @param number The number as it was given.
+         * @param reason Why it was dropped.
+         */
+        void onDropped(int index, String number, Reason reason);
+    }
+
+    private static final int MIN_DIGITS = 7, MAX_DIGITS = 15;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final long countryCode;
+
+    private final int countryCodeDigits;
+
+    private volatile DropListener dropListener;
+
+    private final AtomicLong invalid = new AtomicLong(), duplicates = new AtomicLong();
+
+    /**
+     * Create a normalizer that drops national numbers, those starting with a single 0,
+     * as it does not know which country they are in.
+     */
+    public RecipientNormalizer() {
+        this.countryCode = 0;
+        this.countryCodeDigits = 0;
+    }
+
+    /**
+     * Create a normalizer that puts the given country code in front of national
+     * numbers, in place of their leading 0.
+     *
+     * @param defaultCountryCode The country code, such as "27" or "+44".
+     */
+    public RecipientNormalizer(String defaultCountryCode) {
+        String digits = defaultCountryCode.startsWith("+") ? defaultCountryCode.substring(1) : defaultCountryCode;
+        if (digits.length() < 1 || digits.length() > 3 || digits.charAt(0) == '0') {
+            throw new IllegalArgumentException("Not a country code: " + defaultCountryCode);
+        }
+        this.countryCode = Long.parseLong(digits);
+        this.countryCodeDigits = digits.length();
+    }
+
+    /**
+     * This sets the listener that is told about every number that is dropped.
+     *
+     * @param dropListener The listener, or null for none.
+     */
+    public void setDropListener(DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * @return The listener told about dropped numbers, or null if there is none.
+     */
+    public DropListener getDropListener() {
+        return dropListener;
+    }
+
+    /**
+     * @return The number of invalid numbers dropped by this normalizer, ever.
+     */
+    public long getInvalidCount() {
+        return invalid.get();
+    }
+
+    /**
+     * @return The number of repeated numbers dropped by this normalizer, ever.
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * This normalizes a list of numbers, and drops the invalid and repeated ones.
+     *
+     * @param numbers The numbers, in any format.
+     * @return The numbers to send to, in the order they were first seen, and what was dropped.
+     */
+    public Result normalize(String[] numbers) {
+        DropListener listener = this.dropListener;
+        LongHashSet seen = new LongHashSet(numbers.length);
+        String[] kept = new String[numbers.length];
+        int count = 0;
+        IntList invalidIndexes = new IntList(), duplicateIndexes = new IntList();
+        for (int i = 0; i < numbers.length; i++) {
+            String number = numbers[i];
+            long value = number == null ? -1 : encode(number);
+            if (value < 0) {
+                invalidIndexes.add(i);
+                if (listener != null) {
+                    listener.onDropped(i, number, Reason.INVALID);
+                }
+            } else if (!seen.add(value)) {
+                duplicateIndexes.add(i);
+                if (listener != null) {
+                    listener.onDropped(i, number, Reason.DUPLICATE);
+                }
+            } else {
+                kept[count++] = isClean(number) ? number : Long.toString(value);
+            }
+        }
+        invalid.addAndGet(invalidIndexes.size);
+        duplicates.addAndGet(duplicateIndexes.size);
+        if (count < kept.length) {
+            String[] trimmed = new String[count];
+            System.arraycopy(kept, 0, trimmed, 0, count);
+            kept = trimmed;
+        }
+        return new Result(kept, invalidIndexes.toArray(), duplicateIndexes.toArray());
+    }
+
+    /**
+     * This normalizes one number into a long.
+     *
+     * @param number The number, in any format.
+     * @return The number in international format, or -1 if it is not valid.
+     */
+    public long encode(String number) {
+        boolean plus = false, digitsSeen = false;
+        int leadingZeros = 0, digits = 0;
+        long value = 0;
+        int n = number.length();
+        for (int i = 0; i < n; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (value == 0 && c == '0') {
+                    // A trunk (0) or international (00) prefix:
+                    if (++leadingZeros > 2 || plus) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (++digits > MAX_DIGITS) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+                digitsSeen = true;
+            } else if (c == '+') {
+                if (plus || digitsSeen || leadingZeros > 0) {
+                    return -1;
+                }
+                plus = true;
+            } else if (c == '(' && digitsSeen && i + 2 < n && number.charAt(i + 1) == '0' && number.charAt(i + 2) == ')') {
+                // The trunk prefix written after the country code, as in +27 (0)82:
+                i += 2;
+            } else if (c != ' ' && c != '-' && c != '.' && c != '/' && c != '(' && c != ')' && c != '\t') {
+                return -1;
+            }
+        }
+        if (leadingZeros == 1) {
+            // A national number:
+            if (countryCodeDigits == 0 || digits + countryCodeDigits > MAX_DIGITS) {
+                return -1;
+            }
+            value += countryCode * POWERS_OF_TEN[digits];
+            digits += countryCodeDigits;
+        }
+        return digits < MIN_DIGITS ? -1 : value;
+    }
+
+    /**
+     * @return Whether the number is only digits, and does not start with 0, so is
+     * already the way it would be written out.
+     */
+    private static boolean isClean(String number) {
+        if (number.isEmpty() || number.charAt(0) == '0') {
+            return false;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This is what normalize kept and dropped.
+     */
+    public static final class Result {
+        private final String[] numbers;
+        private final int[] invalidIndexes, duplicateIndexes;
+
+        Result(String[] numbers, int[] invalidIndexes, int[] duplicateIndexes) {
+            this.numbers = numbers;
+            this.invalidIndexes = invalidIndexes;
+            this.duplicateIndexes = duplicateIndexes;
+        }
+
+        /**
+         * @return The numbers to send to, in international format, in the order they were first seen.
+         */
+        public String[] getNumbers() {
+            return numbers;
+        }
+
+        /**
+         * @return The indexes in the given list of the numbers that were not valid.
+         */
+        public int[] getInvalidIndexes() {
+            return invalidIndexes;
+        }
+
+        /**
+         * @return The indexes in the given list of the numbers that were repeats.
+         */
+        public int[] getDuplicateIndexes() {
+            return duplicateIndexes;
+        }
+
+        /**
+         * @return The number of numbers that were dropped.
+         */
+        public int getDroppedCount() {
+            return invalidIndexes.length + duplicateIndexes.length;
+        }
+
+        @Override
+        public String toString() {
+            return numbers.length + " kept, " + invalidIndexes.length + " invalid, "
+                    + duplicateIndexes.length + " duplicates";
+        }
+    }
+
+    /**
+     * This is a growable list of ints, for the indexes of the dropped numbers.
+     */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] bigger = new int[size * 2];
+                System.arraycopy(values, 0, bigger, 0, size);
+                values = bigger;
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+}
@@ -80,22 +80,22 @@ public class RestActivity extends ActionBarActivity {
      * Show the balance of the current account. The balance will be shown as a Toast.
      */
     private void getBalance() {
-        new Thread(new Runnable() {
+        restApi.getBalanceAsync(new ClickatellCallback<Double>() {
             @Override
-            public void run() {
-                try {
-                    final double balance = restApi.getBalance();
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(getApplicationContext(), "Balance is : " + balance, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final Double balance) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(), "Balance is : " + balance, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -131,25 +131,25 @@ public class RestActivity extends ActionBarActivity {
      * @param content The message to send.
      */
     private void SendSingleMessage(final String number, final String content) {
-        new Thread(new Runnable() {
+        restApi.sendMessageAsync(number, content, new ClickatellCallback<ClickatellRest.Message>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellRest.Message result = restApi.sendMessage(number, content);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.rest_send_single_message_reply);
-                            et.setText(result.toString());
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), result.toString(), Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final ClickatellRest.Message result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.rest_send_single_message_reply);
+                        et.setText(result.toString());
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), result.toString(), Toast.LENGTH_LONG).show();
+                    }
+                });
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
@@ -185,28 +185,28 @@ public class RestActivity extends ActionBarActivity {
      * @param content The message to send.
      */
     private void SendMultipleMessages(final String numbers, final String content) {
-        new Thread(new Runnable() {
+        restApi.sendMessageAsync(numbers.split(" "), content, new ClickatellCallback<ClickatellRest.Message[]>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellRest.Message[] result = restApi.sendMessage(numbers.split(" "), content);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            String data = result[0].toString();
-                            for (int i = 1; i < result.length; i++) {
-                                data += "\n" + result[i].toString();
-                            }
-                            EditText et = (EditText) findViewById(R.id.rest_send_multiple_messages_reply);
-                            et.setText(data);
-                            et.setVisibility(View.VISIBLE);
+            public void onSuccess(final ClickatellRest.Message[] result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String data = result[0].toString();
+                        for (int i = 1; i < result.length; i++) {
+                            data += "\n" + result[i].toString();
                         }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+                        EditText et = (EditText) findViewById(R.id.rest_send_multiple_messages_reply);
+                        et.setText(data);
+                        et.setVisibility(View.VISIBLE);
+                    }
+                });
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
@@ -239,25 +239,25 @@ public class RestActivity extends ActionBarActivity {
      * @param messageId The message ID to do the lookup on.
      */
     private void GetMessageStatus(final String messageId) {
-        new Thread(new Runnable() {
+        restApi.getMessageStatusAsync(messageId, new ClickatellCallback<ClickatellRest.Message>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellRest.Message result = restApi.getMessageStatus(messageId);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.rest_get_message_reply);
-                            et.setText(String.format("%s\nCharge: %s, Status: %s Status Description: %s", result.toString(), result.charge, result.status, result.statusString));
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final ClickatellRest.Message result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.rest_get_message_reply);
+                        et.setText(String.format("%s\nCharge: %s, Status: %s Status Description: %s", result.toString(), result.charge, result.status, result.statusString));
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -290,25 +290,25 @@ public class RestActivity extends ActionBarActivity {
      * @param messageId The message ID to try to stop..
      */
     private void StopMessage(final String messageId) {
-        new Thread(new Runnable() {
+        restApi.stopMessageAsync(messageId, new ClickatellCallback<ClickatellRest.Message>() {
             @Override
-            public void run() {
-                try {
-                    final ClickatellRest.Message result = restApi.stopMessage(messageId);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.rest_stop_message_reply);
-                            et.setText(String.format("%s\nStatus: %s Status Description: %s", result.toString(), result.status, result.statusString));
-                            et.setVisibility(View.VISIBLE);
-                            Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+            public void onSuccess(final ClickatellRest.Message result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.rest_stop_message_reply);
+                        et.setText(String.format("%s\nStatus: %s Status Description: %s", result.toString(), result.status, result.statusString));
+                        et.setVisibility(View.VISIBLE);
+                        Toast.makeText(getApplicationContext(), "" + result, Toast.LENGTH_LONG).show();
+                    }
+                });
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
@@ -341,30 +341,30 @@ public class RestActivity extends ActionBarActivity {
      * @param number The number to do a lookup on.
      */
     private void GetCoverage(final String number) {
-        new Thread(new Runnable() {
+        restApi.getCoverageAsync(number, new ClickatellCallback<Double>() {
             @Override
-            public void run() {
-                try {
-                    final double result = restApi.getCoverage(number);
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            EditText et = (EditText) findViewById(R.id.rest_get_coverage_reply);
-                            if (result < 0) {
-                                et.setText("Message Cannot be Routed");
-                                Toast.makeText(getApplicationContext(), "Message Cannot be Routed", Toast.LENGTH_LONG).show();
-                            } else {
-                                et.setText("Message can be routed, and it could cost as little as: " + result + " credits");
-                                Toast.makeText(getApplicationContext(), "Message can be routed, and it could cost as little as: " + result + " credits", Toast.LENGTH_LONG).show();
-                            }
-                            et.setVisibility(View.VISIBLE);
+            public void onSuccess(final Double result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EditText et = (EditText) findViewById(R.id.rest_get_coverage_reply);
+                        if (result < 0) {
+                            et.setText("Message Cannot be Routed");
+                            Toast.makeText(getApplicationContext(), "Message Cannot be Routed", Toast.LENGTH_LONG).show();
+                        } else {
+                            et.setText("Message can be routed, and it could cost as little as: " + result + " credits");
+                            Toast.makeText(getApplicationContext(), "Message can be routed, and it could cost as little as: " + result + " credits", Toast.LENGTH_LONG).show();
                         }
-                    });
-                } catch (Exception e) {
-                    ShowException(e);
-                }
+                        et.setVisibility(View.VISIBLE);
+                    }
+                });
             }
-        }).start();
+
+            @Override
+            public void onFailure(Exception e) {
+                ShowException(e);
+            }
+        });
     }
 
     /**
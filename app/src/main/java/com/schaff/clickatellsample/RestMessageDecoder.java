@@ -0,0 +1,148 @@
+package com.schaff.clickatellsample;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This decodes the response of the REST message call straight from the response
+ * stream. Each entry of data.message[] is handed on as soon as it has been read, so
+ * the memory used stays the same no matter how many numbers were sent to.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class RestMessageDecoder {
+
+    /**
+     * This gets told about every message in the response, in the order they appear.
+     */
+    interface MessageHandler {
+        /**
+         * @param to           The number the message was sent to.
+         * @param apiMessageId The message ID, or null if the message was not accepted.
+         * @param errorCode    The code of the reason the message was not accepted, or -1.
+         * @param error        The reason the message was not accepted, or null.
+         */
+        void onMessage(String to, String apiMessageId, int errorCode, String error);
+    }
+
+    private RestMessageDecoder() {
+    }
+
+    /**
+     * This reads the whole response and tells the handler about each message.
+     *
+     * @param in      The response body.
+     * @param handler The handler to tell about each message.
+     * @return The description of the error if the whole request failed, otherwise null.
+     * @throws IOException If the stream could not be read, or was not JSON.
+     */
+    static String decode(InputStream in, MessageHandler handler) throws IOException {
+        return decode(in, handler, null);
+    }
+
+    /**
+     * This reads the whole response and tells the handler about each message.
+     *
+     * @param in        The response body.
+     * @param handler   The handler to tell about each message.
+     * @param errorCode Where to put the code of the error if the whole request failed, may be null.
+     * @return The description of the error if the whole request failed, otherwise null.
+     * @throws IOException If the stream could not be read, or was not JSON.
+     */
+    static String decode(InputStream in, MessageHandler handler, int[] errorCode) throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(in);
+        String error = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("data")) {
+                readData(reader, handler);
+            } else if (name.equals("error")) {
+                error = readError(reader, errorCode);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return error;
+    }
+
+    private static void readData(JsonStreamReader reader, MessageHandler handler) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("message")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readMessage(reader, handler);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readMessage(JsonStreamReader reader, MessageHandler handler) throws IOException {
+        boolean accepted = false;
+        String to = null, apiMessageId = null, error = null;
+        int[] errorCode = {-1};
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("accepted")) {
+                accepted = reader.nextBoolean();
+            } else if (name.equals("to")) {
+                to = reader.nextString();
+            } else if (name.equals("apiMessageId")) {
+                apiMessageId = reader.nextString();
+            } else if (name.equals("error") && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                error = readError(reader, errorCode);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (accepted) {
+            handler.onMessage(to, apiMessageId, -1, null);
+        } else {
+            handler.onMessage(to, null, errorCode[0], error);
+        }
+    }
+
+    /**
+     * This reads an error object, and returns its description.
+     *
+     * @param code Where to put the error code, if it is wanted and is a number.
+     */
+    private static String readError(JsonStreamReader reader, int[] code) throws IOException {
+        String description = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("description")) {
+                description = reader.nextString();
+            } else if (name.equals("code") && code != null) {
+                code[0] = parseCode(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return description;
+    }
+
+    /**
+     * @return The code, which the API sends as a string of digits, or -1.
+     */
+    private static int parseCode(String code) {
+        if (code == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(code.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
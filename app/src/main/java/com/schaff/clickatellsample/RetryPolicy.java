@@ -0,0 +1,156 @@
+package com.schaff.clickatellsample;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * This decides whether a failed request is tried again, and how long to wait
+ * first. The wait doubles with each attempt, up to a maximum, and a random part of
+ * it is used ("full jitter"), so that many clients that failed together do not
+ * all come back at the same moment.
+ * <p/>
+ * Only failures that are likely to go away are retried: timeouts, refused or
+ * dropped connections, and 429 or 5xx responses. Requests that change something
+ * (sends and stops) are only retried when the request cannot have reached the
+ * gateway: the connection was never made, or the gateway turned the request away
+ * with 429 or 503. That way a retry can never send a message twice.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class RetryPolicy {
+
+    /**
+     * A policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 2000);
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis, maxBackoffMillis;
+
+    /**
+     * Create a policy.
+     *
+     * @param maxAttempts          The most times a request is tried, including the first time.
+     * @param initialBackoffMillis The longest wait before the first retry.
+     * @param maxBackoffMillis     The longest wait before any retry.
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("There must be at least one attempt");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Illegal backoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return The policy clients use if they are not given one: 3 attempts, waiting up
+     * to 100ms, then up to 200ms.
+     */
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return The most times a request is tried, including the first time.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * This executes a request on the transport, retrying it as the policy allows.
+     *
+     * @param transport  The transport to execute the request on.
+     * @param request    The request. Its entity must be repeatable.
+     * @param handler    The handler that turns the response into a result.
+     * @param idempotent Whether the request can safely be handled twice by the gateway.
+     * @return Whatever the handler returned.
+     * @throws IOException The failure of the last attempt.
+     */
+    public <T> T execute(ClickatellTransport transport, HttpUriRequest request,
+                         ResponseHandler<? extends T> handler, boolean idempotent) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transport.execute(request, handler);
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || !isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                long wait = backoffMillis(attempt);
+                if (e instanceof HttpStatusException) {
+                    long retryAfter = ((HttpStatusException) e).getRetryAfterMillis();
+                    if (retryAfter > maxBackoffMillis) {
+                        // The gateway wants a longer break than we are willing to wait:
+                        throw e;
+                    }
+                    wait = Math.max(wait, retryAfter);
+                }
+                sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * This decides whether a failure is worth another attempt.
+     *
+     * @param e          The failure.
+     * @param idempotent Whether the request can safely be handled twice by the gateway.
+     * @return Whether to try again.
+     */
+    public boolean isRetryable(IOException e, boolean idempotent) {
+        // The connection was never made, so the request was never sent:
+        if (e instanceof ConnectException || e instanceof ConnectTimeoutException) {
+            return true;
+        }
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatusCode();
+            return idempotent || status == 429 || status == 503;
+        }
+        if (!idempotent) {
+            return false;
+        }
+        return e instanceof SocketTimeoutException || e instanceof NoHttpResponseException;
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1.
+     * @return A random wait of up to initialBackoff * 2^(attempt - 1), but never more than maxBackoff.
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt - 1, 30);
+        ceiling = Math.min(maxBackoffMillis, ceiling);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return (long) (RANDOM.nextDouble() * (ceiling + 1));
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
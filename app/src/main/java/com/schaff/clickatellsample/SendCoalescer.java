@@ -0,0 +1,421 @@
+package com.schaff.clickatellsample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This merges single sends that happen at about the same time with the same text
+ * (and features) into one request to many numbers. The first send of a text opens
+ * a window, every send of that text during the window joins it, and when the
+ * window closes, or it has MAX_RECIPIENTS_PER_REQUEST numbers, it is sent as one
+ * request. Each caller then gets the result for its own number.
+ * <p/>
+ * This is for many threads sending the same alert to different people: a thousand
+ * sendMessage calls within the window become four requests instead of a thousand.
+ * Each send waits up to the window longer than it would on its own, so keep it short.
+ * <pre>
+ * SendCoalescer coalescer = new SendCoalescer(rest, 20, TimeUnit.MILLISECONDS);
+ * MessageBatch result = coalescer.sendMessage(number, "Server down");
+ * </pre>
+ * A coalescer can be shared by many threads. Call close once it is not needed,
+ * to send what is waiting and stop its timer thread.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class SendCoalescer {
+
+    /**
+     * The most numbers merged into one request.
+     */
+    public static final int MAX_RECIPIENTS_PER_REQUEST = 300;
+
+    private final ClickatellClient client;
+
+    private final long windowNanos;
+
+    private final ConcurrentHashMap<Key, Window> open = new ConcurrentHashMap<Key, Window>();
+
+    private final ScheduledExecutorService timer;
+
+    private volatile ExecutorService executor = ClickatellAsync.getDefaultExecutor();
+
+    private final AtomicLong messages = new AtomicLong(), requests = new AtomicLong();
+
+    /**
+     * Create a coalescer in front of a client.
+     *
+     * @param client The client that sends the merged requests.
+     * @param window How long the first send of a text waits for others to join it.
+     * @param unit   The unit of the window.
+     */
+    public SendCoalescer(ClickatellClient client, long window, TimeUnit unit) {
+        if (client == null || window < 0) {
+            throw new IllegalArgumentException("A client and a window of at least 0 are needed");
+        }
+        this.client = client;
+        this.windowNanos = unit.toNanos(window);
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clickatell-coalescer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * This sets the executor that the merged requests are sent on.
+     *
+     * @param executor The executor, or null to go back to the shared default.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor == null ? ClickatellAsync.getDefaultExecutor() : executor;
+    }
+
+    /**
+     * @return The executor that the merged requests are sent on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The number of sends made through this coalescer.
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @return The number of requests those sends were merged into.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * This sends a message to one number, together with any other sends of the same
+     * text in the window, and waits for the result.
+     *
+     * @param number  The number to send to.
+     * @param message The message that you would like to send.
+     * @return The message ID or error of this number's message, as a batch of one.
+     * @throws Exception This gets thrown if the merged request failed, such as on auth errors.
+     */
+    public MessageBatch sendMessage(String number, String message) throws Exception {
+        return sendAdvancedMessage(number, message, null);
+    }
+
+    /**
+     * This is sendMessage, with extra features. Only sends with the same text and
+     * the same features are merged.
+     *
+     * @param features The extra features that should be included, may be null.
+     */
+    public MessageBatch sendAdvancedMessage(String number, String message, Map<String, String> features)
+            throws Exception {
+        ClickatellAsync.CallbackTask<MessageBatch> future = newTask(null);
+        Window window = join(number, message, features, future);
+        // If no executor thread has started the window once it closes, send it here,
+        // as this caller may be holding the thread it is queued for:
+        window.awaitClosed();
+        if (window.claim()) {
+            window.send();
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * This is sendMessage, without waiting.
+     *
+     * @param callback The callback to tell once it is done, may be null.
+     * @return The future of this number's result.
+     */
+    public Future<MessageBatch> sendMessageAsync(String number, String message,
+                                                 ClickatellCallback<MessageBatch> callback) {
+        return sendAdvancedMessageAsync(number, message, null, callback);
+    }
+
+    /**
+     * This is sendAdvancedMessage, without waiting.
+     *
+     * @param callback The callback to tell once it is done, may be null.
+     * @return The future of this number's result.
+     */
+    public Future<MessageBatch> sendAdvancedMessageAsync(String number, String message, Map<String, String> features,
+                                                         ClickatellCallback<MessageBatch> callback) {
+        ClickatellAsync.CallbackTask<MessageBatch> future = newTask(callback);
+        join(number, message, features, future);
+        return future;
+    }
+
+    /**
+     * This sends everything that is waiting now, without waiting for the windows to close.
+     */
+    public void flush() {
+        for (Window window : open.values()) {
+            send(window);
+        }
+    }
+
+    /**
+     * This sends everything that is waiting, and stops the timer. Sends made after
+     * this still work, but are each sent on their own.
+     */
+    public void close() {
+        timer.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @return A future that is only completed by a window.
+     */
+    private static ClickatellAsync.CallbackTask<MessageBatch> newTask(ClickatellCallback<MessageBatch> callback) {
+        return new ClickatellAsync.CallbackTask<MessageBatch>(
+                new Callable<MessageBatch>() {
+                    @Override
+                    public MessageBatch call() throws Exception {
+                        throw new IllegalStateException("Completed by the coalescer");
+                    }
+                }, callback);
+    }
+
+    /**
+     * This adds a send to the open window of its text, opening one if there is none.
+     *
+     * @return The window the send was added to.
+     */
+    private Window join(String number, String message, Map<String, String> features,
+                        ClickatellAsync.CallbackTask<MessageBatch> future) {
+        messages.incrementAndGet();
+        Key key = new Key(message, features);
+        while (true) {
+            Window window = open.get(key);
+            boolean opened = false;
+            if (window == null) {
+                Window created = new Window(key);
+                window = open.putIfAbsent(key, created);
+                if (window == null) {
+                    window = created;
+                    opened = true;
+                }
+            }
+            int size = window.add(number, future);
+            if (size < 0) {
+                // It closed before we got in, so start or join the next one:
+                continue;
+            }
+            if (opened) {
+                schedule(window);
+            }
+            if (size >= MAX_RECIPIENTS_PER_REQUEST) {
+                send(window);
+            }
+            return window;
+        }
+    }
+
+    private void schedule(final Window window) {
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    send(window);
+                }
+            }, windowNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            // Closed, so there is no waiting for others:
+            send(window);
+        }
+    }
+
+    /**
+     * This closes the window, if it is not closed yet, and sends it on the executor,
+     * unless a caller waiting on it has started it first.
+     */
+    private void send(final Window window) {
+        int size = window.close();
+        if (size < 0) {
+            return;
+        }
+        open.remove(window.key, window);
+        if (size == 0) {
+            // Flushed before its first send got in:
+            return;
+        }
+        requests.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (window.claim()) {
+                        window.send();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected, so only a waiting caller could send it:
+            if (window.claim()) {
+                window.fail(e);
+            }
+        }
+    }
+
+    /**
+     * The text and features that sends must share to be merged.
+     */
+    private static final class Key {
+        private final String message;
+        private final Map<String, String> features;
+
+        Key(String message, Map<String, String> features) {
+            this.message = message;
+            this.features = features == null ? null : new HashMap<String, String>(features);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (message == null ? other.message == null : message.equals(other.message))
+                    && (features == null ? other.features == null : features.equals(other.features));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (message == null ? 0 : message.hashCode()) + (features == null ? 0 : features.hashCode());
+        }
+    }
+
+    /**
+     * The sends of one text that are waiting to go out together.
+     */
+    private final class Window {
+        private final Key key;
+        private final List<String> numbers = new ArrayList<String>();
+        private final List<ClickatellAsync.CallbackTask<MessageBatch>> futures =
+                new ArrayList<ClickatellAsync.CallbackTask<MessageBatch>>();
+        private boolean closed = false, started = false;
+
+        Window(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The number of sends in the window with this one, or -1 if it was closed.
+         */
+        synchronized int add(String number, ClickatellAsync.CallbackTask<MessageBatch> future) {
+            if (closed) {
+                return -1;
+            }
+            numbers.add(number);
+            futures.add(future);
+            return numbers.size();
+        }
+
+        /**
+         * @return The number of sends in the window, or -1 if it was already closed.
+         */
+        synchronized int close() {
+            if (closed) {
+                return -1;
+            }
+            closed = true;
+            notifyAll();
+            return numbers.size();
+        }
+
+        synchronized void awaitClosed() throws InterruptedException {
+            while (!closed) {
+                wait();
+            }
+        }
+
+        /**
+         * @return Whether this caller is the one to send the window, which it must
+         * then do. Only one caller ever gets true.
+         */
+        synchronized boolean claim() {
+            if (started) {
+                return false;
+            }
+            started = true;
+            return true;
+        }
+
+        /**
+         * This sends the one request, and hands each caller its own result. Nothing
+         * can be added once the window is closed, so the lists are only read here.
+         */
+        void send() {
+            String[] to = numbers.toArray(new String[numbers.size()]);
+            MessageBatch batch;
+            try {
+                batch = key.features == null
+                        ? client.sendBulkMessageBatch(to, key.message, 1)
+                        : client.sendAdvancedMessageBatch(to, key.message, key.features);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            if (batch.size() == to.length) {
+                for (int i = 0; i < to.length; i++) {
+                    futures.get(i).setResult(row(batch, i));
+                }
+                return;
+            }
+            // Some numbers were dropped or merged by the client's RecipientNormalizer,
+            // so match the results up by number:
+            Map<String, Integer> rows = new HashMap<String, Integer>();
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                rows.put(batch.getNumber(i), i);
+            }
+            RecipientNormalizer normalizer = client.getRecipientNormalizer();
+            for (int i = 0; i < to.length; i++) {
+                Integer row = rows.get(to[i]);
+                if (row == null && normalizer != null && to[i] != null) {
+                    long value = normalizer.encode(to[i]);
+                    row = value < 0 ? null : rows.get(Long.toString(value));
+                }
+                if (row == null) {
+                    futures.get(i).setFailure(new Exception("The number was dropped: " + to[i]));
+                } else {
+                    futures.get(i).setResult(row(batch, row));
+                }
+            }
+        }
+
+        void fail(Throwable t) {
+            for (ClickatellAsync.CallbackTask<MessageBatch> future : futures) {
+                future.setFailure(t);
+            }
+        }
+    }
+
+    /**
+     * @return The message at the given index, as a batch of its own.
+     */
+    private static MessageBatch row(MessageBatch batch, int index) {
+        return new MessageBatch.Builder(batch.getText(), 1).append(batch, index).build();
+    }
+}
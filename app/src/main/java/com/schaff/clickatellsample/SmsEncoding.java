@@ -0,0 +1,177 @@
+package com.schaff.clickatellsample;
+
+/**
+ * This works out, without asking the API, how a text will be sent: in the GSM 7 bit
+ * alphabet if every character is in it (or in its extension table), otherwise as
+ * UCS-2, and how many SMS parts it will take. It is one pass over the text with a
+ * table lookup per character, so it is cheap enough to run on every message.
+ * <p/>
+ * A GSM message is one part of up to 160 septets, or parts of 153 septets each, as
+ * every part then carries a header. Characters of the extension table, such as
+ * '{' and the Euro sign, take two septets, and are never split over two parts.
+ * UCS-2 is the same with 70 and 67 UTF-16 units, and surrogate pairs are never split.
+ * <p/>
+ * The clients use this to add the unicode and concat (maxMessageParts for REST)
+ * features a message needs, and to charge the BalanceLedger per part.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public final class SmsEncoding {
+
+    /**
+     * The encodings a message can be sent in.
+     */
+    public enum Encoding {
+        GSM_7, UCS_2
+    }
+
+    public static final int GSM_SINGLE_PART = 160, GSM_MULTI_PART = 153;
+
+    public static final int UCS2_SINGLE_PART = 70, UCS2_MULTI_PART = 67;
+
+    private static final byte NOT_GSM = 0, BASIC = 1, EXTENSION = 2;
+
+    /**
+     * The characters of the GSM 03.38 default alphabet, other than escape.
+     */
+    private static final String BASIC_CHARACTERS = "@\u00a3$\u00a5\u00e8\u00e9\u00f9\u00ec\u00f2\u00c7\n\u00d8\u00f8\r"
+            + "\u00c5\u00e5\u0394_\u03a6\u0393\u039b\u03a9\u03a0\u03a8\u03a3\u0398\u039e\u00c6\u00e6\u00df\u00c9"
+            + " !\"#\u00a4%&'()*+,-./0123456789:;<=>?\u00a1ABCDEFGHIJKLMNOPQRSTUVWXYZ\u00c4\u00d6\u00d1\u00dc\u00a7"
+            + "\u00bfabcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00f1\u00fc\u00e0";
+
+    /**
+     * The characters of the extension table, other than the Euro sign.
+     */
+    private static final String EXTENSION_CHARACTERS = "\f^{}\\[~]|";
+
+    private static final char EURO = '\u20ac';
+
+    /**
+     * The kind of every character up to the Greek capitals, by character.
+     */
+    private static final byte[] TABLE = new byte[0x400];
+
+    static {
+        for (int i = 0; i < BASIC_CHARACTERS.length(); i++) {
+            TABLE[BASIC_CHARACTERS.charAt(i)] = BASIC;
+        }
+        for (int i = 0; i < EXTENSION_CHARACTERS.length(); i++) {
+            TABLE[EXTENSION_CHARACTERS.charAt(i)] = EXTENSION;
+        }
+    }
+
+    private final Encoding encoding;
+
+    private final int length, segments, remaining;
+
+    private SmsEncoding(Encoding encoding, int length, int segments, int remaining) {
+        this.encoding = encoding;
+        this.length = length;
+        this.segments = segments;
+        this.remaining = remaining;
+    }
+
+    /**
+     * This works out how the given text will be sent.
+     *
+     * @param text The text of the message, null is taken as empty.
+     * @return The encoding, length and number of parts of the text.
+     */
+    public static SmsEncoding analyze(CharSequence text) {
+        int n = text == null ? 0 : text.length();
+        boolean gsm = true;
+        // The septets (or units) so far, and the parts and septets in the last part
+        // if the text is split:
+        int septets = 0, gsmParts = 1, gsmUsed = 0;
+        int units = 0, ucsParts = 1, ucsUsed = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (gsm) {
+                int width = septets(c);
+                if (width == 0) {
+                    gsm = false;
+                } else {
+                    septets += width;
+                    if (gsmUsed + width > GSM_MULTI_PART) {
+                        gsmParts++;
+                        gsmUsed = 0;
+                    }
+                    gsmUsed += width;
+                }
+            }
+            int width = 1;
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                width = 2;
+                i++;
+            }
+            units += width;
+            if (ucsUsed + width > UCS2_MULTI_PART) {
+                ucsParts++;
+                ucsUsed = 0;
+            }
+            ucsUsed += width;
+        }
+        if (gsm) {
+            if (septets <= GSM_SINGLE_PART) {
+                return new SmsEncoding(Encoding.GSM_7, septets, 1, GSM_SINGLE_PART - septets);
+            }
+            return new SmsEncoding(Encoding.GSM_7, septets, gsmParts, GSM_MULTI_PART - gsmUsed);
+        }
+        if (units <= UCS2_SINGLE_PART) {
+            return new SmsEncoding(Encoding.UCS_2, units, 1, UCS2_SINGLE_PART - units);
+        }
+        return new SmsEncoding(Encoding.UCS_2, units, ucsParts, UCS2_MULTI_PART - ucsUsed);
+    }
+
+    /**
+     * @return The number of septets the character takes in GSM, 1 or 2, or 0 if it is not in GSM at all.
+     */
+    public static int septets(char c) {
+        if (c < TABLE.length) {
+            return TABLE[c];
+        }
+        return c == EURO ? EXTENSION : NOT_GSM;
+    }
+
+    /**
+     * @return The encoding the text will be sent in.
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return Whether the text has to be sent as UCS-2.
+     */
+    public boolean isUnicode() {
+        return encoding == Encoding.UCS_2;
+    }
+
+    /**
+     * @return The length of the text in septets for GSM, or in UTF-16 units for UCS-2.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The number of SMS parts the text will be sent as, at least 1.
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return The septets (or units) that could still be added to the last part,
+     * without adding a part. Adding to a single part text may still make it two.
+     */
+    public int getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public String toString() {
+        return encoding + ", " + length + (encoding == Encoding.GSM_7 ? " septets, " : " units, ")
+                + segments + (segments == 1 ? " part" : " parts");
+    }
+}
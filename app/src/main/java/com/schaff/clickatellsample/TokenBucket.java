@@ -0,0 +1,163 @@
+package com.schaff.clickatellsample;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This is a token bucket rate limiter. Tokens are added at a fixed rate, up to the
+ * burst size, and every message sent takes one. Give one to
+ * ClickatellHttp.setRateLimiter or ClickatellRest.setRateLimiter to keep every send
+ * under the rate your account allows. Share one bucket between all the clients of
+ * the same account.
+ * <p/>
+ * The bucket is lock free: its whole state is the time at which it will next be
+ * full, which is moved forward with compare-and-set. A blocking bucket makes a
+ * send wait for its tokens, a non-blocking one fails the send with a
+ * RateLimitExceededException instead. A send of more numbers than the burst size
+ * still goes through, once the bucket is full, and the tokens it is short are
+ * paid back before the next send.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class TokenBucket {
+
+    private final long nanosPerToken;
+
+    /**
+     * How far ahead of now the bucket may be booked, which is the burst size in time.
+     */
+    private final long burstNanos;
+
+    private final int burst;
+
+    private final boolean blocking;
+
+    /**
+     * The time, in System.nanoTime, at which all the tokens handed out so far will have been earned.
+     */
+    private final AtomicLong earnedAt;
+
+    /**
+     * Create a blocking bucket.
+     *
+     * @param permitsPerSecond The number of tokens added every second.
+     * @param burst            The most tokens the bucket holds.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, true);
+    }
+
+    /**
+     * Create a bucket.
+     *
+     * @param permitsPerSecond The number of tokens added every second.
+     * @param burst            The most tokens the bucket holds.
+     * @param blocking         Whether sends wait for tokens, or fail straight away.
+     */
+    public TokenBucket(double permitsPerSecond, int burst, boolean blocking) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("The rate must be positive and the burst at least 1");
+        }
+        this.nanosPerToken = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = nanosPerToken * burst;
+        this.burst = burst;
+        this.blocking = blocking;
+        // Start full:
+        this.earnedAt = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * This takes tokens if they are there right now. Asking for more than the burst
+     * size succeeds once the bucket is full: the bucket is emptied, and the tokens
+     * it is short are taken from the ones still to be added, so later sends wait
+     * for them.
+     *
+     * @param permits The number of tokens to take.
+     * @return Whether the tokens were taken.
+     */
+    public boolean tryAcquire(int permits) {
+        long cost = permits * nanosPerToken;
+        long needed = Math.min(cost, burstNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long earned = earnedAt.get();
+            long start = Math.max(earned, now - burstNanos);
+            if (start + needed - now > 0) {
+                return false;
+            }
+            long next = start + cost;
+            if (earnedAt.compareAndSet(earned, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * This takes tokens, waiting until they have been earned. Asking for more than
+     * the burst size is allowed, it just waits longer.
+     *
+     * @param permits The number of tokens to take.
+     * @throws InterruptedException If the thread was interrupted while waiting, the
+     *                              tokens are then still used up.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long cost = permits * nanosPerToken;
+        long wait;
+        while (true) {
+            long now = System.nanoTime();
+            long earned = earnedAt.get();
+            long next = Math.max(earned, now - burstNanos) + cost;
+            if (earnedAt.compareAndSet(earned, next)) {
+                wait = next - now;
+                break;
+            }
+        }
+        long deadline = System.nanoTime() + wait;
+        while (wait > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            wait = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * This takes tokens for a send, the way this bucket was set up to: blocking
+     * buckets wait, non-blocking ones throw.
+     *
+     * @param permits The number of tokens to take.
+     * @throws RateLimitExceededException If this bucket does not block and the tokens are not there.
+     * @throws InterruptedException       If the thread was interrupted while waiting.
+     */
+    public void take(int permits) throws RateLimitExceededException, InterruptedException {
+        if (blocking) {
+            acquire(permits);
+        } else if (!tryAcquire(permits)) {
+            throw new RateLimitExceededException(permits);
+        }
+    }
+
+    /**
+     * @return The most tokens the bucket holds.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return Whether sends wait for tokens.
+     */
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * @return The number of whole tokens that are in the bucket right now.
+     */
+    public int available() {
+        long idle = System.nanoTime() - earnedAt.get();
+        return (int) Math.max(0, Math.min(idle, burstNanos) / nanosPerToken);
+    }
+}
@@ -0,0 +1,84 @@
+package com.schaff.clickatellsample;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * This makes realistic requests and replies for the benchmarks. The same seed is
+ * used every time, so every run measures the same bytes.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+final class Payloads {
+
+    static final String MESSAGE = "Hi there, your order #48213 has shipped & will arrive on Tuesday. "
+            + "Reply STOP to opt out.";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Payloads() {
+    }
+
+    /**
+     * @return The given count of South African mobile numbers, in international format.
+     */
+    static String[] numbers(int count) {
+        Random random = new Random(count);
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = "2782" + (1000000 + random.nextInt(9000000));
+        }
+        return numbers;
+    }
+
+    /**
+     * @return The reply of the HTTP API to a send to the given count of numbers.
+     */
+    static byte[] httpSendReply(int count) {
+        String[] numbers = numbers(count);
+        Random random = new Random(count);
+        StringBuilder reply = new StringBuilder(count * 56);
+        for (int i = 0; i < count; i++) {
+            if (count == 1) {
+                reply.append("ID: ").append(messageId(random)).append('\n');
+            } else if (i % 50 == 49) {
+                reply.append("ERR: 114, Cannot route message To: ").append(numbers[i]).append('\n');
+            } else {
+                reply.append("ID: ").append(messageId(random)).append(" To: ").append(numbers[i]).append('\n');
+            }
+        }
+        return reply.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return The reply of the REST API to a send to the given count of numbers.
+     */
+    static byte[] restSendReply(int count) {
+        String[] numbers = numbers(count);
+        Random random = new Random(count);
+        StringBuilder reply = new StringBuilder(count * 90).append("{\"data\":{\"message\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                reply.append(',');
+            }
+            if (i % 50 == 49) {
+                reply.append("{\"accepted\":false,\"to\":\"").append(numbers[i])
+                        .append("\",\"error\":{\"code\":\"114\",\"description\":\"Cannot route message\"}}");
+            } else {
+                reply.append("{\"accepted\":true,\"to\":\"").append(numbers[i])
+                        .append("\",\"apiMessageId\":\"").append(messageId(random)).append("\"}");
+            }
+        }
+        return reply.append("]}}").toString().getBytes(UTF_8);
+    }
+
+    private static String messageId(Random random) {
+        char[] id = new char[32];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = HEX[random.nextInt(16)];
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,106 @@
+package com.schaff.clickatellsample;
+
+import org.apache.http.HttpEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This measures building the body of a send, for the HTTP API (form encoded) and
+ * the REST API (JSON), with 1, 300 and 10000 numbers. The REST bodies are written
+ * to a stream that throws them away, as above ClickatellRest.STREAMING_THRESHOLD
+ * numbers they are only built as they are sent.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestEncodingBenchmark {
+
+    @Param({"1", "300", "10000"})
+    public int recipients;
+
+    private String[] numbers;
+
+    private String message;
+
+    private HashMap<String, String> features;
+
+    private FormRequestTemplate sendRequest;
+
+    private final Sink sink = new Sink();
+
+    @Setup
+    public void setUp() {
+        numbers = Payloads.numbers(recipients);
+        message = Payloads.MESSAGE;
+        features = new HashMap<String, String>();
+        features.put("from", "27820000000");
+        features.put("callback", "7");
+        sendRequest = new FormRequestTemplate("https://api.clickatell.com/http/sendmsg.php",
+                "user", "benchmark", "api_id", "3512345", "password", "s3cr3t p@ss");
+    }
+
+    @Benchmark
+    public long httpFormBody() {
+        return sendRequest.begin()
+                .addList("to", numbers)
+                .add("text", message)
+                .toRequest().getEntity().getContentLength();
+    }
+
+    @Benchmark
+    public long httpAdvancedFormBody() {
+        FormRequestTemplate.Body body = sendRequest.begin()
+                .addList("to", numbers)
+                .add("text", message);
+        for (String key : features.keySet()) {
+            body.add(key, features.get(key));
+        }
+        return body.toRequest().getEntity().getContentLength();
+    }
+
+    @Benchmark
+    public long restJsonBody() throws IOException {
+        return send(ClickatellRest.messageEntity(numbers, message, null));
+    }
+
+    @Benchmark
+    public long restAdvancedJsonBody() throws IOException {
+        return send(ClickatellRest.messageEntity(numbers, message, features));
+    }
+
+    private long send(HttpEntity entity) throws IOException {
+        sink.count = 0;
+        entity.writeTo(sink);
+        return sink.count;
+    }
+
+    /**
+     * This counts the bytes written to it, and throws them away.
+     */
+    private static final class Sink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.schaff.clickatellsample;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This measures parsing the reply of a send with 1, 300 and 10000 numbers: the HTTP
+ * API's plain text reply, and the REST API's JSON reply, both streamed and through
+ * JSONObject as the other REST calls still do.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseParsingBenchmark {
+
+    @Param({"1", "300", "10000"})
+    public int recipients;
+
+    private byte[] httpReply, restReply;
+
+    @Setup
+    public void setUp() {
+        httpReply = Payloads.httpSendReply(recipients);
+        restReply = Payloads.restSendReply(recipients);
+    }
+
+    @Benchmark
+    public int httpReplyDecoder(final Blackhole blackhole) throws IOException {
+        return HttpReplyDecoder.decode(new ByteArrayInputStream(httpReply), new HttpReplyDecoder.ReplyHandler() {
+            @Override
+            public void onReply(HttpReplyDecoder.Reply reply) {
+                blackhole.consume(reply.id);
+            }
+        });
+    }
+
+    @Benchmark
+    public String restMessageDecoder(final Blackhole blackhole) throws IOException {
+        return RestMessageDecoder.decode(new ByteArrayInputStream(restReply), new RestMessageDecoder.MessageHandler() {
+            @Override
+            public void onMessage(String to, String apiMessageId, int errorCode, String error) {
+                blackhole.consume(apiMessageId);
+            }
+        });
+    }
+
+    @Benchmark
+    public void restJsonObject(Blackhole blackhole) throws IOException, JSONException {
+        JSONObject obj = new JSONObject(ClickatellRest.inputStreamToString(new ByteArrayInputStream(restReply)));
+        JSONArray messages = obj.getJSONObject("data").getJSONArray("message");
+        for (int i = 0; i < messages.length(); i++) {
+            blackhole.consume(messages.getJSONObject(i).optString("apiMessageId"));
+        }
+    }
+
+    @Benchmark
+    public int inputStreamToString() throws IOException {
+        return ClickatellRest.inputStreamToString(new ByteArrayInputStream(restReply)).length();
+    }
+}
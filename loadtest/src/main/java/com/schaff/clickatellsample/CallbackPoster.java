@@ -0,0 +1,162 @@
+package com.schaff.clickatellsample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This posts delivery callbacks to a URL the way Clickatell does, one request per
+ * receipt, for the messages ClickatellStandIn accepts. Messages sent with the HTTP
+ * API get a form, and messages sent with the REST API get JSON.
+ * <p/>
+ * Receipts wait in a queue and are posted by a few threads over keep-alive
+ * connections, so a burst of sends turns into a stream of callbacks.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class CallbackPoster {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final URL url;
+
+    private final String status;
+
+    private final BlockingQueue<String[]> queue = new LinkedBlockingQueue<String[]>();
+
+    private final ExecutorService threads;
+
+    private final AtomicLong posted = new AtomicLong(), failed = new AtomicLong();
+
+    /**
+     * Create a poster, and start its threads.
+     *
+     * @param url     The callback URL to post to.
+     * @param status  The status every receipt reports, such as "004".
+     * @param threads The number of requests to have in flight at once.
+     * @throws IOException If the URL is not valid.
+     */
+    public CallbackPoster(String url, String status, int threads) throws IOException {
+        this.url = new URL(url);
+        this.status = status;
+        this.threads = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clickatell-stand-in-callbacks");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            this.threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    postAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * This queues a receipt for a message.
+     *
+     * @param apiMessageId The ID the message was given.
+     * @param to           The number it was sent to.
+     * @param rest         Whether it was sent with the REST API, so the receipt is JSON.
+     */
+    public void post(String apiMessageId, String to, boolean rest) {
+        queue.add(new String[]{apiMessageId, to, rest ? "rest" : null});
+    }
+
+    /**
+     * @return The number of receipts posted and answered with a 2xx.
+     */
+    public long getPostedCount() {
+        return posted.get();
+    }
+
+    /**
+     * @return The number of receipts that could not be posted.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return The number of receipts waiting to be posted.
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * This stops posting, the receipts still queued are dropped.
+     */
+    public void stop() {
+        threads.shutdownNow();
+    }
+
+    private void postAll() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String[] receipt = queue.take();
+                try {
+                    send(receipt[0], receipt[1], receipt[2] != null);
+                    posted.incrementAndGet();
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        }
+    }
+
+    private void send(String apiMessageId, String to, boolean rest) throws IOException {
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        String body;
+        String contentType;
+        if (rest) {
+            contentType = "application/json";
+            body = "{\"data\":{\"apiMessageId\":\"" + apiMessageId + "\",\"accountId\":1,\"clientMessageId\":\"\""
+                    + ",\"timestamp\":" + timestamp + ",\"to\":\"" + to + "\",\"from\":\"\",\"charge\":0.8"
+                    + ",\"messageStatus\":\"" + status + "\"}}";
+        } else {
+            contentType = "application/x-www-form-urlencoded";
+            body = "api_id=1&apiMsgId=" + apiMessageId + "&cliMsgId=&to=" + URLEncoder.encode(to, "UTF-8")
+                    + "&timestamp=" + timestamp + "&from=&status=" + status + "&charge=0.8";
+        }
+        byte[] bytes = body.getBytes(UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(bytes.length);
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream out = connection.getOutputStream();
+        out.write(bytes);
+        out.close();
+        int code = connection.getResponseCode();
+        // Read the body to the end, so the connection is kept for the next receipt:
+        InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            while (in.read() != -1) {
+                // Nothing to read really, the receiver answers with an empty body.
+            }
+            in.close();
+        }
+        if (code / 100 != 2) {
+            throw new IOException("The callback was answered with " + code);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.schaff.clickatellsample;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a local server that answers like the Clickatell HTTP and REST APIs, so
+ * the clients can be load tested without sending real messages or spending credit.
+ * Point the clients at it with the base URL constructors:
+ * <pre>
+ * ClickatellStandIn standIn = new ClickatellStandIn(0);
+ * standIn.start();
+ * ClickatellHttp http = new ClickatellHttp("user", "1", "pass", transport,
+ *         standIn.getHttpBaseUrl(), standIn.getUtilsBaseUrl());
+ * ClickatellRest rest = new ClickatellRest("key", transport, standIn.getRestBaseUrl());
+ * </pre>
+ * Every message is accepted, every status is "004" (received by recipient) and
+ * every charge is 0.8, unless getBehaviour says otherwise. Any credentials are
+ * accepted, but the REST API needs an Authorization header. With postCallbacksTo
+ * a delivery receipt is posted for every accepted message, to test a
+ * DeliveryReceiptReceiver.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class ClickatellStandIn {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CHARGE = "0.8", STATUS = "004", STOPPED = "006", BALANCE = "1000.0";
+
+    private final StandInBehaviour behaviour = new StandInBehaviour();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * The poster of delivery callbacks, or null if there is none.
+     */
+    private volatile CallbackPoster callbacks;
+
+    private final AtomicLong nextId = new AtomicLong(1), requests = new AtomicLong(), messages = new AtomicLong(),
+            faults = new AtomicLong();
+
+    /**
+     * Every thread picks its faults and latencies with its own random numbers.
+     */
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Create a stand-in on the given port of localhost. It is not started yet.
+     *
+     * @param port The port, 0 for any free one.
+     * @throws IOException If the port could not be bound.
+     */
+    public ClickatellStandIn(int port) throws IOException {
+        // Otherwise every small response waits out the client's delayed ACK. This is read
+        // once, so it only works if no other HttpServer was made first:
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        // Latency is injected by sleeping, so every request needs its own thread:
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "clickatell-stand-in");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/http/", new FaultyHandler() {
+            @Override
+            void answer(HttpExchange exchange) throws IOException {
+                answerHttp(exchange);
+            }
+        });
+        server.createContext("/utils/", new FaultyHandler() {
+            @Override
+            void answer(HttpExchange exchange) throws IOException {
+                answerHttp(exchange);
+            }
+        });
+        server.createContext("/rest/", new FaultyHandler() {
+            @Override
+            void answer(HttpExchange exchange) throws IOException {
+                answerRest(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * This stops the server, waiting at most the given time for requests to finish.
+     */
+    public void stop(int waitSeconds) {
+        server.stop(waitSeconds);
+        executor.shutdownNow();
+        CallbackPoster callbacks = this.callbacks;
+        if (callbacks != null) {
+            callbacks.stop();
+        }
+    }
+
+    /**
+     * @return How this stand-in misbehaves, change it at any time.
+     */
+    public StandInBehaviour getBehaviour() {
+        return behaviour;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getHttpBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/http/";
+    }
+
+    public String getUtilsBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/utils/";
+    }
+
+    public String getRestBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/rest/";
+    }
+
+    /**
+     * This posts a delivery receipt to the given URL for every message accepted from
+     * now on, as Clickatell does for an account with a callback URL.
+     *
+     * @param url    The callback URL, or null to stop posting.
+     * @param status The status every receipt reports, such as "004".
+     * @throws IOException If the URL is not valid.
+     */
+    public synchronized void postCallbacksTo(String url, String status) throws IOException {
+        if (callbacks != null) {
+            callbacks.stop();
+        }
+        callbacks = url == null ? null : new CallbackPoster(url, status, 4);
+    }
+
+    /**
+     * @return The poster of delivery callbacks, or null if callbacks are not being posted.
+     */
+    public CallbackPoster getCallbacks() {
+        return callbacks;
+    }
+
+    /**
+     * @return The number of requests received.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of messages accepted.
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @return The number of requests that were throttled, dropped or failed on purpose.
+     */
+    public long getFaultCount() {
+        return faults.get();
+    }
+
+    /**
+     * This answers the HTTP API, which replies in plain text.
+     */
+    private void answerHttp(HttpExchange exchange) throws IOException {
+        Map<String, String> params = formParams(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String call = path.substring(path.lastIndexOf('/') + 1);
+        StringBuilder reply = new StringBuilder();
+        if (call.equals("auth.php")) {
+            reply.append("OK: ").append(newId());
+        } else if (call.equals("getbalance.php")) {
+            reply.append("Credit: ").append(BALANCE);
+        } else if (call.equals("sendmsg.php")) {
+            String to = params.get("to");
+            if (to == null || to.length() == 0 || params.get("text") == null) {
+                reply.append("ERR: 101, Invalid or missing parameters");
+            } else {
+                String[] numbers = to.split(",");
+                CallbackPoster callbacks = this.callbacks;
+                for (String number : numbers) {
+                    String id = newId();
+                    if (callbacks != null) {
+                        callbacks.post(id, number, false);
+                    }
+                    reply.append("ID: ").append(id);
+                    if (numbers.length > 1) {
+                        reply.append(" To: ").append(number);
+                    }
+                    reply.append('\n');
+                }
+                messages.addAndGet(numbers.length);
+            }
+        } else if (call.equals("querymsg.php")) {
+            reply.append("ID: ").append(params.get("apimsgid")).append(" Status: ").append(STATUS);
+        } else if (call.equals("getmsgcharge.php")) {
+            reply.append("apiMsgId: ").append(params.get("apimsgid")).append(" charge: ").append(CHARGE)
+                    .append(" status: ").append(STATUS);
+        } else if (call.equals("delmsg.php")) {
+            reply.append("ID: ").append(params.get("apimsgid")).append(" Status: ").append(STOPPED);
+        } else if (call.equals("routecoverage.php")) {
+            reply.append("OK: This prefix is currently supported. Messages sent to this prefix will be routed. ")
+                    .append("Charge: ").append(CHARGE);
+        } else {
+            respond(exchange, 404, "text/plain", "Not found");
+            return;
+        }
+        respond(exchange, 200, "text/plain", reply.toString());
+    }
+
+    /**
+     * This answers the REST API, which replies in JSON.
+     */
+    private void answerRest(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+            respond(exchange, 401, "application/json",
+                    "{\"error\":{\"code\":\"001\",\"description\":\"Authentication failed\"}}");
+            return;
+        }
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring("/rest/".length()).split("/");
+        String call = path[0];
+        String argument = path.length > 1 ? path[1] : null;
+        if (call.equals("message") && method.equals("POST")) {
+            respond(exchange, 202, "application/json", sendRest(exchange.getRequestBody()));
+        } else if (call.equals("message") && argument != null && method.equals("GET")) {
+            respond(exchange, 200, "application/json", "{\"data\":{\"charge\":" + CHARGE
+                    + ",\"messageStatus\":\"" + STATUS + "\",\"description\":\"Received by recipient\""
+                    + ",\"apiMessageId\":\"" + argument + "\"}}");
+        } else if (call.equals("message") && argument != null && method.equals("DELETE")) {
+            respond(exchange, 200, "application/json", "{\"data\":{\"messageStatus\":\"" + STOPPED
+                    + "\",\"description\":\"User cancelled message delivery\""
+                    + ",\"apiMessageId\":\"" + argument + "\"}}");
+        } else if (call.equals("account") && "balance".equals(argument)) {
+            respond(exchange, 200, "application/json", "{\"data\":{\"balance\":" + BALANCE + "}}");
+        } else if (call.equals("coverage") && argument != null) {
+            respond(exchange, 200, "application/json", "{\"data\":{\"routable\":true,\"destination\":\""
+                    + argument + "\",\"minimumCharge\":" + CHARGE + "}}");
+        } else {
+            respond(exchange, 404, "application/json",
+                    "{\"error\":{\"code\":\"404\",\"description\":\"Not found\"}}");
+        }
+    }
+
+    /**
+     * This reads the numbers out of a REST message request, and accepts them all.
+     */
+    private String sendRest(InputStream body) throws IOException {
+        List<String> numbers = new ArrayList<String>();
+        JsonStreamReader reader = new JsonStreamReader(body);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("to")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    numbers.add(reader.nextString());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (numbers.isEmpty()) {
+            return "{\"error\":{\"code\":\"101\",\"description\":\"Invalid or missing parameters\"}}";
+        }
+        StringBuilder reply = new StringBuilder(numbers.size() * 90).append("{\"data\":{\"message\":[");
+        CallbackPoster callbacks = this.callbacks;
+        for (int i = 0; i < numbers.size(); i++) {
+            if (i > 0) {
+                reply.append(',');
+            }
+            String id = newId();
+            if (callbacks != null) {
+                callbacks.post(id, numbers.get(i), true);
+            }
+            reply.append("{\"accepted\":true,\"to\":\"").append(numbers.get(i))
+                    .append("\",\"apiMessageId\":\"").append(id).append("\"}");
+        }
+        messages.addAndGet(numbers.size());
+        return reply.append("]}}").toString();
+    }
+
+    /**
+     * @return A new message ID, 32 hex digits like the real ones.
+     */
+    private String newId() {
+        String hex = Long.toHexString(nextId.getAndIncrement());
+        StringBuilder id = new StringBuilder(32);
+        for (int i = hex.length(); i < 32; i++) {
+            id.append('0');
+        }
+        return id.append(hex).toString();
+    }
+
+    /**
+     * @return The parameters of the query string and, for a POST, the form body.
+     */
+    private static Map<String, String> formParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        if (exchange.getRequestMethod().equals("POST")) {
+            parseForm(new String(readFully(exchange.getRequestBody()), UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) throws IOException {
+        if (form == null || form.length() == 0) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * This sends a response, dripping the body out slowly if the behaviour says so.
+     */
+    private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        int drip = behaviour.getDripBytesPerSecond();
+        if (drip <= 0) {
+            out.write(bytes);
+        } else {
+            // Ten writes a second:
+            int chunk = Math.max(1, drip / 10);
+            for (int i = 0; i < bytes.length; i += chunk) {
+                out.write(bytes, i, Math.min(chunk, bytes.length - i));
+                out.flush();
+                sleep(TimeUnit.SECONDS.toMillis(chunk) / drip);
+            }
+        }
+        out.close();
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    /**
+     * This applies the faults and latency of the behaviour, before the real answer.
+     */
+    private abstract class FaultyHandler implements HttpHandler {
+
+        abstract void answer(HttpExchange exchange) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                Random r = random.get();
+                sleep(Math.max(0, behaviour.getLatency().nextMillis(r)));
+                TokenBucket limit = behaviour.getRateLimit();
+                if ((limit != null && !limit.tryAcquire(1)) || r.nextDouble() < behaviour.getThrottleRate()) {
+                    faults.incrementAndGet();
+                    int retryAfter = behaviour.getRetryAfterSeconds();
+                    if (retryAfter > 0) {
+                        Headers headers = exchange.getResponseHeaders();
+                        headers.set("Retry-After", Integer.toString(retryAfter));
+                    }
+                    respond(exchange, 429, "text/plain", "Too many requests");
+                } else if (r.nextDouble() < behaviour.getDropRate()) {
+                    faults.incrementAndGet();
+                    // Closing before the headers are sent drops the connection.
+                } else if (r.nextDouble() < behaviour.getErrorRate()) {
+                    faults.incrementAndGet();
+                    respond(exchange, behaviour.getErrorStatus(), "text/plain", "Internal error");
+                } else {
+                    answer(exchange);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.schaff.clickatellsample;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This drives ClickatellHttp or ClickatellRest as hard as it can against a local
+ * ClickatellStandIn for a while, and then prints what got through and the metrics
+ * of every endpoint. The options, all of which are optional, are:
+ * <pre>
+ * --api=http|rest         The client to test, http by default.
+ * --threads=16            The number of threads sending.
+ * --seconds=30            How long to send for.
+ * --recipients=1          The numbers per send, more than 300 uses sendBulkMessage.
+ * --lookups=false         Whether to look up the status of every message sent.
+ * --latency-ms=0          The median latency of the stand-in, log-normal with sigma 0.5.
+ * --error-rate=0          The share of requests answered with 500.
+ * --throttle-rate=0       The share of requests answered with 429.
+ * --drop-rate=0           The share of requests dropped without an answer.
+ * --drip=0                The rate response bodies are written at, in bytes per second.
+ * --rate-limit=0          The requests per second the stand-in allows, 0 for no limit.
+ * --connections=20        The size of the connection pool.
+ * </pre>
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else if (arg.length() > 0) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        final boolean rest = "rest".equals(option(options, "api", "http"));
+        int threads = Integer.parseInt(option(options, "threads", "16"));
+        int seconds = Integer.parseInt(option(options, "seconds", "30"));
+        final int recipients = Integer.parseInt(option(options, "recipients", "1"));
+        final boolean lookups = Boolean.parseBoolean(option(options, "lookups", "false"));
+        int connections = Integer.parseInt(option(options, "connections", "20"));
+
+        ClickatellStandIn standIn = new ClickatellStandIn(0);
+        StandInBehaviour behaviour = standIn.getBehaviour();
+        double latency = Double.parseDouble(option(options, "latency-ms", "0"));
+        if (latency > 0) {
+            behaviour.setLatency(StandInBehaviour.logNormal(latency, 0.5));
+        }
+        behaviour.setErrorRate(Double.parseDouble(option(options, "error-rate", "0")));
+        behaviour.setThrottleRate(Double.parseDouble(option(options, "throttle-rate", "0")));
+        behaviour.setDropRate(Double.parseDouble(option(options, "drop-rate", "0")));
+        behaviour.setDripBytesPerSecond(Integer.parseInt(option(options, "drip", "0")));
+        int rateLimit = Integer.parseInt(option(options, "rate-limit", "0"));
+        if (rateLimit > 0) {
+            behaviour.setRateLimit(new TokenBucket(rateLimit, rateLimit));
+        }
+        standIn.start();
+
+        ClickatellTransport transport = new ClickatellTransport(connections, connections);
+        InMemoryMetricsRegistry metrics = new InMemoryMetricsRegistry();
+        transport.setMetricsRegistry(metrics);
+        final ClickatellHttp http = new ClickatellHttp("load", "1", "test", transport,
+                standIn.getHttpBaseUrl(), standIn.getUtilsBaseUrl());
+        final ClickatellRest restApi = new ClickatellRest("load-test", transport, standIn.getRestBaseUrl());
+        final String[] numbers = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            numbers[i] = Long.toString(27820000000L + i);
+        }
+
+        final AtomicLong sends = new AtomicLong(), failures = new AtomicLong(), sent = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            try {
+                                String id = rest ? sendRest(restApi, numbers) : sendHttp(http, numbers);
+                                if (lookups && id != null) {
+                                    if (rest) {
+                                        restApi.getMessageStatus(id);
+                                    } else {
+                                        http.getMessageStatus(id);
+                                    }
+                                }
+                                sends.incrementAndGet();
+                                sent.addAndGet(numbers.length);
+                            } catch (Exception e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + t).start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s: %d sends ok, %d failed, %.0f sends/s, %.0f messages/s%n",
+                rest ? "REST" : "HTTP", sends.get(), failures.get(), sends.get() / elapsed, sent.get() / elapsed);
+        System.out.printf("Stand-in: %d requests, %d messages, %d faults%n",
+                standIn.getRequestCount(), standIn.getMessageCount(), standIn.getFaultCount());
+        System.out.print(metrics.scrape());
+        transport.shutdown();
+        standIn.stop(0);
+    }
+
+    /**
+     * @return The ID of the first message sent.
+     */
+    private static String sendHttp(ClickatellHttp http, String[] numbers) throws Exception {
+        if (numbers.length == 1) {
+            return http.sendMessage(numbers[0], "Load test").message_id;
+        }
+        MessageBatch batch = numbers.length > ClickatellHttp.MAX_RECIPIENTS_PER_REQUEST
+                ? http.sendBulkMessageBatch(numbers, "Load test")
+                : http.sendMessageBatch(numbers, "Load test");
+        return batch.size() == 0 ? null : batch.getMessageId(0);
+    }
+
+    /**
+     * @return The ID of the first message sent.
+     */
+    private static String sendRest(ClickatellRest rest, String[] numbers) throws Exception {
+        if (numbers.length == 1) {
+            return rest.sendMessage(numbers[0], "Load test").message_id;
+        }
+        MessageBatch batch = numbers.length > ClickatellRest.MAX_RECIPIENTS_PER_REQUEST
+                ? rest.sendBulkMessageBatch(numbers, "Load test")
+                : rest.sendMessageBatch(numbers, "Load test");
+        return batch.size() == 0 ? null : batch.getMessageId(0);
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
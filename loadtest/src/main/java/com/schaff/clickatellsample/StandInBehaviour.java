@@ -0,0 +1,168 @@
+package com.schaff.clickatellsample;
+
+import java.util.Random;
+
+/**
+ * This is how a ClickatellStandIn misbehaves: how long it takes to answer, and how
+ * often it fails, throttles or drops a request. Everything can be changed while the
+ * stand-in is running. By default it answers straight away and never fails.
+ * <p/>
+ * The faults are picked in this order, once per request: rate limit, throttle,
+ * drop, error. Only requests that get through all of them get a real answer.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class StandInBehaviour {
+
+    /**
+     * This picks how long a request waits before it is answered.
+     */
+    public interface LatencyDistribution {
+        /**
+         * @param random The random numbers to use.
+         * @return The wait, in milliseconds.
+         */
+        long nextMillis(Random random);
+    }
+
+    /**
+     * @return Latencies that are always the same.
+     */
+    public static LatencyDistribution fixed(final long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * @return Latencies spread evenly between the two values.
+     */
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+        };
+    }
+
+    /**
+     * This is the usual shape of network latency: most requests near the median,
+     * and a long tail of slow ones. A sigma of 0.5 puts the 99th percentile at about
+     * three times the median, 1.0 at about ten times.
+     *
+     * @return Log-normal latencies.
+     */
+    public static LatencyDistribution logNormal(final double medianMillis, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    private volatile LatencyDistribution latency = fixed(0);
+
+    private volatile double errorRate = 0, throttleRate = 0, dropRate = 0;
+
+    private volatile int errorStatus = 500;
+
+    private volatile int retryAfterSeconds = 1;
+
+    private volatile int dripBytesPerSecond = 0;
+
+    private volatile TokenBucket rateLimit;
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    /**
+     * @param latency How long each request waits before it is answered.
+     */
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @param errorRate The share of requests, between 0 and 1, answered with the error status.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * @param errorStatus The status failed requests are answered with, 500 by default.
+     */
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    /**
+     * @param throttleRate The share of requests, between 0 and 1, answered with 429.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @param retryAfterSeconds The Retry-After sent with 429 responses, 0 to leave it out.
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    /**
+     * @param dropRate The share of requests, between 0 and 1, whose connection is closed without an answer.
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    public int getDripBytesPerSecond() {
+        return dripBytesPerSecond;
+    }
+
+    /**
+     * @param dripBytesPerSecond The rate response bodies are written at, 0 to write them at once.
+     */
+    public void setDripBytesPerSecond(int dripBytesPerSecond) {
+        this.dripBytesPerSecond = dripBytesPerSecond;
+    }
+
+    public TokenBucket getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @param rateLimit The limit requests take a token from, once it is empty they are
+     *                  answered with 429. Null for no limit. It should not block.
+     */
+    public void setRateLimit(TokenBucket rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+}
@@ -0,0 +1,127 @@
+package com.schaff.clickatellsample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * These check that removing and expiring records from a MessageTrackingStore
+ * keeps every other record findable, with clusters that wrap around the end of
+ * the table.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class MessageTrackingStoreTest {
+
+    /**
+     * A store this small has one stripe of SLOTS slots, which is full at MAX_SIZE.
+     */
+    private static final int CAPACITY = 30, SLOTS = 41, MAX_SIZE = 36;
+
+    private int next = 0;
+
+    @Test
+    public void removeMovesBackWrappedCluster() {
+        MessageTrackingStore store = new MessageTrackingStore(CAPACITY, 1, TimeUnit.HOURS);
+        // Three IDs that hash to the last slot fill it and wrap around to the first
+        // two, then one that hashes to the first slot goes after them:
+        List<String> ids = idsWithHome(SLOTS - 1, 3);
+        ids.addAll(idsWithHome(0, 1));
+        for (int i = 0; i < ids.size(); i++) {
+            store.track(ids.get(i), Integer.toString(27820000 + i));
+        }
+
+        assertTrue(store.forget(ids.get(0)));
+        assertEquals(3, store.size());
+        for (int i = 1; i < ids.size(); i++) {
+            assertEquals(Integer.toString(27820000 + i), store.getNumber(ids.get(i)));
+        }
+        assertNull(store.getNumber(ids.get(0)));
+
+        // Taking one out of the middle of the wrapped part:
+        assertTrue(store.forget(ids.get(2)));
+        assertEquals("27820001", store.getNumber(ids.get(1)));
+        assertEquals("27820003", store.getNumber(ids.get(3)));
+        assertFalse(store.forget(ids.get(2)));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void expireKeepsRecordsMovedIntoScannedSlots() throws Exception {
+        MessageTrackingStore store = new MessageTrackingStore(CAPACITY, 1, TimeUnit.SECONDS);
+        // Old and new records take turns in clusters at the end of the table, that
+        // wrap around, and at its start:
+        List<String> last = idsWithHome(SLOTS - 1, 4);
+        List<String> first = idsWithHome(0, 4);
+        List<String> old = new ArrayList<String>(), fresh = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            (i % 2 == 0 ? old : fresh).add(last.get(i));
+            (i % 2 == 0 ? fresh : old).add(first.get(i));
+        }
+        for (String id : last) {
+            store.track(id);
+        }
+        for (String id : first) {
+            store.track(id);
+        }
+        // Only the fresh ones are updated after the time to live:
+        Thread.sleep(2100);
+        for (String id : fresh) {
+            store.updateStatus(id, 3);
+        }
+
+        assertEquals(old.size(), store.expire());
+        assertEquals(fresh.size(), store.size());
+        for (String id : fresh) {
+            assertEquals(3, store.getStatus(id));
+        }
+        for (String id : old) {
+            assertFalse(store.forget(id));
+        }
+    }
+
+    @Test
+    public void fullStripeExpiresToMakeRoom() throws Exception {
+        MessageTrackingStore store = new MessageTrackingStore(CAPACITY, 1, TimeUnit.SECONDS);
+        List<String> ids = idsWithHome(SLOTS - 1, MAX_SIZE + 1);
+        for (int i = 0; i < MAX_SIZE; i++) {
+            store.track(ids.get(i));
+        }
+        try {
+            store.track(ids.get(MAX_SIZE));
+            fail("The store should be full");
+        } catch (IllegalStateException expected) {
+            // Nothing is old enough to expire yet.
+        }
+
+        // Once they are older than the time to live, a new record takes their place:
+        Thread.sleep(2100);
+        store.updateStatus(ids.get(MAX_SIZE - 1), 3);
+        store.track(ids.get(MAX_SIZE));
+        assertEquals(2, store.size());
+        assertEquals(3, store.getStatus(ids.get(MAX_SIZE - 1)));
+        assertTrue(store.forget(ids.get(MAX_SIZE)));
+    }
+
+    /**
+     * @return IDs of 32 hex digits that all hash to the given slot.
+     */
+    private List<String> idsWithHome(int slot, int count) {
+        List<String> ids = new ArrayList<String>();
+        while (ids.size() < count) {
+            String id = String.format("%032x", next++);
+            if (MessageTrackingStore.Key.of(id).home(SLOTS) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,178 @@
+package com.schaff.clickatellsample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * These check that an OutboundQueue reads back what was not done after it was
+ * closed, or the process died, and deletes what was.
+ *
+ * @author Dominic Schaff <dominic.schaff@gmail.com>
+ */
+public class OutboundQueueTest {
+
+    /**
+     * The smallest segment, so a few entries fill one.
+     */
+    private static final int SEGMENT_SIZE = 1024;
+
+    /**
+     * The size of an entry for an 11 digit number and a two letter text: the header,
+     * type, sequence, number length, number, text length and text.
+     */
+    private static final int ENTRY_SIZE = 8 + 1 + 8 + 2 + 11 + 4 + 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysPendingEntriesAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        OutboundQueue queue = open(dir);
+        long first = queue.enqueue("27820000001", "hi");
+        long second = queue.enqueue("27820000002", "hi");
+        long third = queue.enqueue("27820000003", "yo");
+        queue.acknowledge(second, "0d1d7dda17d5a24edf1555dc0b679d0e");
+        queue.close();
+
+        queue = open(dir);
+        List<OutboundQueue.Entry> pending = queue.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(first, pending.get(0).getSequence());
+        assertEquals("27820000001", pending.get(0).getNumber());
+        assertEquals("hi", pending.get(0).getText());
+        assertEquals(third, pending.get(1).getSequence());
+        assertEquals("yo", pending.get(1).getText());
+        assertTrue(queue.enqueue("27820000004", "hi") > third);
+        queue.close();
+    }
+
+    @Test
+    public void pendingHoldsUnsentEntriesAndNotDiscardedOnes() throws Exception {
+        File dir = folder.newFolder();
+        OutboundQueue queue = open(dir);
+        long kept = queue.enqueue("27820000001", "hi");
+        long discarded = queue.enqueue("27820000002", "hi");
+        queue.discard(discarded, ClickatellException.INVALID_DESTINATION, "Invalid Destination Address");
+        assertEquals(1, queue.getPending().size());
+        assertEquals(kept, queue.getPending().get(0).getSequence());
+        queue.close();
+
+        queue = open(dir);
+        assertEquals(1, queue.getPending().size());
+        assertEquals(kept, queue.getPending().get(0).getSequence());
+        queue.close();
+    }
+
+    @Test
+    public void dropsTornTail() throws Exception {
+        File dir = folder.newFolder();
+        OutboundQueue queue = open(dir);
+        long first = queue.enqueue("27820000001", "hi");
+        queue.enqueue("27820000002", "hi");
+        queue.close();
+
+        // Break the second entry, as if the process died while writing it, and
+        // leave a length with nothing after it:
+        File[] segments = dir.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        try {
+            file.seek(ENTRY_SIZE + 20);
+            file.write(0x7F);
+            file.seek(2 * ENTRY_SIZE);
+            file.writeInt(ENTRY_SIZE - 8);
+        } finally {
+            file.close();
+        }
+
+        queue = open(dir);
+        assertEquals(1, queue.getPending().size());
+        assertEquals(first, queue.getPending().get(0).getSequence());
+        // The next entry is written over the torn one, and read back after it:
+        long next = queue.enqueue("27820000003", "hi");
+        queue.close();
+
+        queue = open(dir);
+        List<OutboundQueue.Entry> pending = queue.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(first, pending.get(0).getSequence());
+        assertEquals(next, pending.get(1).getSequence());
+        assertEquals("27820000003", pending.get(1).getNumber());
+        queue.close();
+    }
+
+    @Test
+    public void deletesSegmentsOnceDone() throws Exception {
+        File dir = folder.newFolder();
+        OutboundQueue queue = open(dir);
+        int count = 3 * SEGMENT_SIZE / ENTRY_SIZE;
+        long[] sequences = new long[count];
+        for (int i = 0; i < count; i++) {
+            sequences[i] = queue.enqueue(Long.toString(27820000000L + i), "hi");
+        }
+        int segments = dir.listFiles().length;
+        assertTrue(segments >= 3);
+
+        // One entry left in the oldest segment keeps it, and so every one after it:
+        for (int i = 1; i < count; i++) {
+            queue.acknowledge(sequences[i], null);
+        }
+        assertTrue(dir.listFiles().length >= segments);
+        queue.acknowledge(sequences[0], null);
+        assertEquals(1, dir.listFiles().length);
+        assertEquals(0, queue.getOutstandingCount());
+        queue.close();
+
+        queue = open(dir);
+        assertEquals(0, queue.getPending().size());
+        queue.close();
+    }
+
+    @Test
+    public void readsAcknowledgementsInLaterSegments() throws Exception {
+        File dir = folder.newFolder();
+        OutboundQueue queue = open(dir);
+        long early = queue.enqueue("27820000001", "hi");
+        long kept = queue.enqueue("27820000002", "hi");
+        // Fill the first segment, so the acknowledgements go in a later one:
+        long filler = 0;
+        while (dir.listFiles().length < 2) {
+            filler = queue.enqueue("27820000003", "hi");
+        }
+        queue.acknowledge(early, "0d1d7dda17d5a24edf1555dc0b679d0e");
+        queue.close();
+
+        queue = open(dir);
+        List<OutboundQueue.Entry> pending = queue.getPending();
+        assertEquals(kept, pending.get(0).getSequence());
+        assertEquals(filler, pending.get(pending.size() - 1).getSequence());
+        for (OutboundQueue.Entry entry : pending) {
+            assertTrue(entry.getSequence() != early);
+        }
+
+        // The acknowledgement read back counts against the first segment, so it goes
+        // once everything else in it is done:
+        for (OutboundQueue.Entry entry : pending) {
+            if (entry.getSequence() != filler) {
+                queue.acknowledge(entry.getSequence(), null);
+            }
+        }
+        assertEquals(1, queue.getOutstandingCount());
+        assertEquals(1, dir.listFiles().length);
+        queue.close();
+    }
+
+    private static OutboundQueue open(File dir) throws IOException {
+        return new OutboundQueue(dir, SEGMENT_SIZE, 1);
+    }
+}